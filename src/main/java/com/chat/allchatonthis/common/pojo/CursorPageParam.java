@@ -0,0 +1,35 @@
+package com.chat.allchatonthis.common.pojo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 游标分页参数
+ * <p>
+ * 与 {@link PageParam} 的 offset 分页不同，每一页从上一页最后一条记录的位置继续查询，
+ * 无论翻到第几页都只读取本页的数据，也不需要每次 COUNT(*)
+ */
+@Schema(description = "游标分页参数")
+@Data
+public class CursorPageParam implements Serializable {
+
+    private static final Integer PAGE_SIZE = 20;
+
+    @Schema(description = "游标，取自上一页结果的 nextCursor，为空时查询第一页", example = "MjAyNS0wMS0wMVQwMDowMDowMHwxMjM")
+    private String cursor;
+
+    @Schema(description = "每页条数，最大值为 100", requiredMode = Schema.RequiredMode.REQUIRED, example = "20")
+    @NotNull(message = "每页条数不能为空")
+    @Min(value = 1, message = "每页条数最小值为 1")
+    @Max(value = 100, message = "每页条数最大值为 100")
+    private Integer pageSize = PAGE_SIZE;
+
+    @Schema(description = "是否查询总量，默认不查询", example = "false")
+    private Boolean withTotal = false;
+
+}
@@ -0,0 +1,36 @@
+package com.chat.allchatonthis.common.pojo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Schema(description = "游标分页结果")
+@Data
+public final class CursorPageResult<T> implements Serializable {
+
+    @Schema(description = "数据", requiredMode = Schema.RequiredMode.REQUIRED)
+    private List<T> list;
+
+    @Schema(description = "下一页的游标，没有下一页时为空")
+    private String nextCursor;
+
+    @Schema(description = "总量，仅在请求时查询")
+    private Long total;
+
+    public CursorPageResult() {
+    }
+
+    public CursorPageResult(List<T> list, String nextCursor, Long total) {
+        this.list = list;
+        this.nextCursor = nextCursor;
+        this.total = total;
+    }
+
+    @Schema(description = "是否有下一页", requiredMode = Schema.RequiredMode.REQUIRED)
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.chat.allchatonthis.common.pojo;
+
+import com.chat.allchatonthis.common.exception.ServiceException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static com.chat.allchatonthis.common.exception.enums.GlobalErrorCodeConstants.BAD_REQUEST;
+
+/**
+ * 游标分页的位置：上一页最后一条记录的 (时间, ID)
+ * <p>
+ * 对外编码为 URL 安全的 Base64 字符串，客户端只需原样传回，不应解析其内容
+ *
+ * @param time 排序时间，可能为空（历史数据）
+ * @param id   记录 ID，时间相同时的排序依据
+ */
+public record PageCursor(LocalDateTime time, Long id) {
+
+    private static final char SEPARATOR = '|';
+
+    public String encode() {
+        String value = (time != null ? time.toString() : "") + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor 编码后的游标
+     * @return 游标位置，游标为空时返回 null（第一页）
+     */
+    public static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf(SEPARATOR);
+            String time = value.substring(0, separator);
+            return new PageCursor(time.isEmpty() ? null : LocalDateTime.parse(time),
+                    Long.valueOf(value.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new ServiceException(BAD_REQUEST.getCode(), "Invalid cursor");
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.chat.allchatonthis.common.util.http;
+
+import com.chat.allchatonthis.common.exception.ServiceException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.CONFIG_NOT_EXISTS;
+
+/**
+ * Decrypts API keys encrypted by the frontend with CryptoJS.AES, caching the results
+ * <p>
+ * A configuration sends the same encrypted key with the same secret on every message, so the plaintext is kept
+ * for a short while in a bounded, memory-only cache instead of deriving the AES key and decrypting again. Entries
+ * are keyed by a SHA-256 hash of (ciphertext, secret key) so neither is held as a key; the plaintext is never
+ * written anywhere else.
+ * <p>
+ * {@link Cipher} and {@link MessageDigest} instances are pooled rather than kept per thread, requests run on
+ * short-lived virtual threads that would never reuse a thread local instance.
+ */
+@Slf4j
+final class ApiKeyDecryptor {
+
+    private static final String CACHE_NAME = "api_key";
+
+    private static final Cache<String, String> CACHE = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    private static final int POOL_SIZE = 16;
+    private static final BlockingQueue<Cipher> CIPHERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<MessageDigest> MD5_DIGESTS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<MessageDigest> SHA256_DIGESTS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // Registered on the global registry, which Spring Boot binds its own registry to, as this class is not a bean
+    private static final Counter HITS = requestCounter("hit");
+    private static final Counter MISSES = requestCounter("miss");
+    private static final Timer DECRYPT_TIMER = Timer.builder("acot.api.key.decrypt")
+            .description("Time taken to derive the AES key and decrypt an API key on a cache miss")
+            .register(Metrics.globalRegistry);
+
+    private ApiKeyDecryptor() {
+    }
+
+    /**
+     * Decrypt an API key, using the cached plaintext if the same key was decrypted with the same secret recently
+     *
+     * @param encryptedApiKey The encrypted API key, without the "enc:" marker
+     * @param secretKey       The secret key to use for decryption
+     * @return The decrypted API key
+     */
+    static String decryptCached(String encryptedApiKey, String secretKey) {
+        String cacheKey = hash(encryptedApiKey, secretKey);
+        String apiKey = CACHE.getIfPresent(cacheKey);
+        if (apiKey != null) {
+            HITS.increment();
+            return apiKey;
+        }
+        MISSES.increment();
+        // Failures are not cached, get(key, loader) would only rethrow them
+        apiKey = DECRYPT_TIMER.record(() -> decrypt(encryptedApiKey, secretKey));
+        CACHE.put(cacheKey, apiKey);
+        return apiKey;
+    }
+
+    /**
+     * Decrypt an API key. This implementation is compatible with CryptoJS.AES encryption used in the frontend
+     *
+     * @param encryptedApiKey The encrypted API key
+     * @param secretKey       The secret key to use for decryption
+     * @return The decrypted API key
+     */
+    static String decrypt(String encryptedApiKey, String secretKey) {
+        Cipher cipher = null;
+        try {
+            // CryptoJS uses OpenSSL format which includes salt
+            // First, decode Base64
+            byte[] cipherData = Base64.getDecoder().decode(encryptedApiKey);
+
+            // CryptoJS format: "Salted__" + 8 byte salt + actual ciphertext
+            byte[] saltBytes = new byte[8];
+            System.arraycopy(cipherData, 8, saltBytes, 0, 8);
+
+            // Generate key and IV using OpenSSL EVP_BytesToKey derivation
+            byte[][] keyAndIV = EVP_BytesToKey(32, 16, secretKey.getBytes(StandardCharsets.UTF_8), saltBytes, 1);
+
+            // Use AES/CBC/PKCS5Padding (which is what CryptoJS uses by default)
+            cipher = CIPHERS.poll();
+            if (cipher == null) {
+                cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            }
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyAndIV[0], "AES"), new IvParameterSpec(keyAndIV[1]));
+
+            byte[] decryptedBytes = cipher.doFinal(cipherData, 16, cipherData.length - 16);
+            return new String(decryptedBytes, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            log.error("Error decrypting API key", e);
+            throw new ServiceException(CONFIG_NOT_EXISTS, "Failed to decrypt API key: " + e.getMessage());
+        } finally {
+            // init() resets the cipher on its next use, whatever state it was left in
+            if (cipher != null) {
+                CIPHERS.offer(cipher);
+            }
+        }
+    }
+
+    /**
+     * Implementation of OpenSSL's EVP_BytesToKey key derivation function
+     * This is used by CryptoJS to derive the key and IV from the password and salt
+     */
+    private static byte[][] EVP_BytesToKey(int keyLen, int ivLen, byte[] password, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        byte[] key = new byte[keyLen];
+        byte[] iv = new byte[ivLen];
+
+        byte[] concatenatedHashBytes = new byte[0];
+
+        MessageDigest md5 = borrowDigest(MD5_DIGESTS, "MD5");
+        try {
+            int hashLen = 16; // MD5 hash length
+
+            int keyAndIvLen = keyLen + ivLen;
+            int numHashes = (keyAndIvLen + hashLen - 1) / hashLen;
+
+            byte[] result = new byte[numHashes * hashLen];
+            int resultLen = 0;
+
+            for (int i = 1; i <= numHashes; i++) {
+                // For the first hash, the data is just the password and salt
+                // For subsequent hashes, add the previous hash result
+                md5.reset();
+                if (i > 1) {
+                    md5.update(concatenatedHashBytes);
+                }
+                md5.update(password);
+                if (salt != null) {
+                    md5.update(salt);
+                }
+                concatenatedHashBytes = md5.digest();
+
+                // Perform additional iterations if requested
+                for (int j = 1; j < iterations; j++) {
+                    md5.reset();
+                    md5.update(concatenatedHashBytes);
+                    concatenatedHashBytes = md5.digest();
+                }
+
+                // Copy the hash into the result buffer
+                System.arraycopy(
+                        concatenatedHashBytes, 0,
+                        result, resultLen,
+                        Math.min(concatenatedHashBytes.length, result.length - resultLen)
+                );
+                resultLen += concatenatedHashBytes.length;
+            }
+
+            // Split the result into key and IV
+            System.arraycopy(result, 0, key, 0, keyLen);
+            System.arraycopy(result, keyLen, iv, 0, ivLen);
+        } finally {
+            returnDigest(MD5_DIGESTS, md5);
+        }
+
+        return new byte[][]{key, iv};
+    }
+
+    /**
+     * Cache key for a (ciphertext, secret key) pair. The parts are separated by a NUL, which neither Base64 nor a
+     * typed secret contains, so distinct pairs never hash the same input
+     */
+    private static String hash(String encryptedApiKey, String secretKey) {
+        MessageDigest sha256;
+        try {
+            sha256 = borrowDigest(SHA256_DIGESTS, "SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+        try {
+            sha256.update(encryptedApiKey.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) 0);
+            sha256.update(secretKey.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(sha256.digest());
+        } finally {
+            returnDigest(SHA256_DIGESTS, sha256);
+        }
+    }
+
+    private static MessageDigest borrowDigest(BlockingQueue<MessageDigest> pool, String algorithm) throws GeneralSecurityException {
+        MessageDigest digest = pool.poll();
+        return digest != null ? digest : MessageDigest.getInstance(algorithm);
+    }
+
+    private static void returnDigest(BlockingQueue<MessageDigest> pool, MessageDigest digest) {
+        digest.reset();
+        pool.offer(digest);
+    }
+
+    private static Counter requestCounter(String result) {
+        return Counter.builder("acot.cache.requests")
+                .description("Cache lookups per cache level")
+                .tag("cache", CACHE_NAME)
+                .tag("level", "l1")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+}
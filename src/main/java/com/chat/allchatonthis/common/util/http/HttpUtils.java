@@ -7,7 +7,7 @@ import cn.hutool.core.util.ReflectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.HttpRequest;
 import cn.hutool.http.HttpResponse;
-import com.chat.allchatonthis.common.exception.ServiceException;
+import com.chat.allchatonthis.common.util.json.CompiledJsonPath;
 import com.chat.allchatonthis.common.util.json.JsonUtils;
 import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
 import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
@@ -17,20 +17,13 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
 import java.net.URI;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.CONFIG_NOT_EXISTS;
-
 /**
  * HTTP 工具类
  */
@@ -178,38 +171,15 @@ public class HttpUtils {
      * @return Map containing headers and requestBody
      */
     public static Map<String, Object> prepareRequestData(UserConfigDO config, String messageText) {
-        // Prepare headers
-        Map<String, String> headers = new HashMap<>(config.getHeaders() != null ? config.getHeaders() : new HashMap<>());
-
-        // Check if API key is encrypted and decrypt if needed
-        String apiKey = config.getApiKey();
-        if (apiKey != null && apiKey.startsWith("enc:") && StringUtils.hasText(config.getSecretKey())) {
-            try {
-                apiKey = decryptApiKey(apiKey.substring(4), config.getSecretKey());
-            } catch (Exception e) {
-                log.error("Error decrypting API key", e);
-                throw new ServiceException(CONFIG_NOT_EXISTS, "Failed to decrypt API key: " + e.getMessage());
-            }
-        }
-
-        // Add API key to headers based on placement
-        if ("header".equals(config.getApiKeyPlacement()) || config.getApiKeyPlacement() == null) {
-            headers.put("Authorization", "Bearer " + apiKey);
-        } else if ("custom_header".equals(config.getApiKeyPlacement()) && config.getApiKeyHeader() != null) {
-            headers.put(config.getApiKeyHeader(), apiKey);
-        }
+        String apiKey = resolveApiKey(config);
+        Map<String, String> headers = prepareHeaders(config, apiKey);
 
-        // Ensure Content-Type header exists
-        if (!headers.containsKey("Content-Type")) {
-            headers.put("Content-Type", "application/json");
-        }
-
-        // Prepare request body by cloning the template
-        Map<String, Object> requestBody = new HashMap<>(config.getRequestTemplate());
+        // Prepare request body by cloning the template, deeply since nested paths are written below
+        Map<String, Object> requestBody = copyTemplate(config.getRequestTemplate());
 
         // Add API key to body if needed
         if ("body".equals(config.getApiKeyPlacement()) && config.getApiKeyBodyPath() != null) {
-            JsonUtils.setValueByPath(requestBody, config.getApiKeyBodyPath(), apiKey);
+            CompiledJsonPath.of(config.getApiKeyBodyPath()).set(requestBody, apiKey);
         }
 
         // Add the message text to the request body at the specified path if provided
@@ -229,12 +199,12 @@ public class HttpUtils {
             messageObj.put(textPath, messageText);
 
             // Set the message in the message group
-            JsonUtils.setValueByPath(requestBody, config.getRequestMessageGroupPath(), new ArrayList<Map<String, Object>>());
+            CompiledJsonPath.of(config.getRequestMessageGroupPath()).set(requestBody, new ArrayList<Map<String, Object>>());
 
             // Add the message to the message group
             List<Map<String, Object>> messages = new ArrayList<>();
             messages.add(messageObj);
-            JsonUtils.setValueByPath(requestBody, config.getRequestMessageGroupPath(), messages);
+            CompiledJsonPath.of(config.getRequestMessageGroupPath()).set(requestBody, messages);
         }
 
         Map<String, Object> result = new HashMap<>();
@@ -254,38 +224,15 @@ public class HttpUtils {
      * @return Map containing headers and requestBody
      */
     public static Map<String, Object> prepareRequestData(UserConfigDO config, String messageText, List<ConversationMessageDO> conversationMessages) {
-        // Prepare headers
-        Map<String, String> headers = new HashMap<>(config.getHeaders() != null ? config.getHeaders() : new HashMap<>());
+        String apiKey = resolveApiKey(config);
+        Map<String, String> headers = prepareHeaders(config, apiKey);
 
-        // Check if API key is encrypted and decrypt if needed
-        String apiKey = config.getApiKey();
-        if (apiKey != null && apiKey.startsWith("enc:") && StringUtils.hasText(config.getSecretKey())) {
-            try {
-                apiKey = decryptApiKey(apiKey.substring(4), config.getSecretKey());
-            } catch (Exception e) {
-                log.error("Error decrypting API key", e);
-                throw new ServiceException(CONFIG_NOT_EXISTS, "Failed to decrypt API key: " + e.getMessage());
-            }
-        }
-
-        // Add API key to headers based on placement
-        if ("header".equals(config.getApiKeyPlacement()) || config.getApiKeyPlacement() == null) {
-            headers.put("Authorization", "Bearer " + apiKey);
-        } else if ("custom_header".equals(config.getApiKeyPlacement()) && config.getApiKeyHeader() != null) {
-            headers.put(config.getApiKeyHeader(), apiKey);
-        }
-
-        // Ensure Content-Type header exists
-        if (!headers.containsKey("Content-Type")) {
-            headers.put("Content-Type", "application/json");
-        }
-
-        // Prepare request body by cloning the template
-        Map<String, Object> requestBody = new HashMap<>(config.getRequestTemplate());
+        // Prepare request body by cloning the template, deeply since nested paths are written below
+        Map<String, Object> requestBody = copyTemplate(config.getRequestTemplate());
 
         // Add API key to body if needed
         if ("body".equals(config.getApiKeyPlacement()) && config.getApiKeyBodyPath() != null) {
-            JsonUtils.setValueByPath(requestBody, config.getApiKeyBodyPath(), apiKey);
+            CompiledJsonPath.of(config.getApiKeyBodyPath()).set(requestBody, apiKey);
         }
 
         // Extract field names and default values
@@ -338,11 +285,11 @@ public class HttpUtils {
             }
 
             // Set the messages in the request body
-            JsonUtils.setValueByPath(requestBody, config.getRequestMessageGroupPath(), messages);
+            CompiledJsonPath.of(config.getRequestMessageGroupPath()).set(requestBody, messages);
         }
         // For backward compatibility
         else if (messageText != null && StringUtils.hasText(config.getRequestTextPathFromGroup())) {
-            JsonUtils.setValueByPath(requestBody, config.getRequestTextPathFromGroup(), messageText);
+            CompiledJsonPath.of(config.getRequestTextPathFromGroup()).set(requestBody, messageText);
         }
 
         Map<String, Object> result = new HashMap<>();
@@ -353,108 +300,115 @@ public class HttpUtils {
     }
 
     /**
-     * Method to decrypt an API key using AES decryption with the provided secret key
-     * This implementation is compatible with CryptoJS.AES encryption used in the frontend
+     * Prepares the request data like {@link #prepareRequestData(UserConfigDO, String, List)}, with the body already serialized
+     * <p>
+     * The request template is compiled once per distinct template (see {@link RequestBodyTemplate}), so only
+     * the messages are serialized per call and the body is returned as chunks to be written one after the other.
+     * Configurations the template cannot be compiled for are serialized from the prepared map instead.
      *
-     * @param encryptedApiKey The encrypted API key
-     * @param secretKey       The secret key to use for decryption
-     * @return The decrypted API key
+     * @param config               The user configuration containing API settings
+     * @param messageText          The message text to include in the request
+     * @param conversationMessages Previous messages in the conversation
+     * @param stream               Whether to ask for a streamed response
+     * @return Map containing headers and requestBody, the latter a {@code List<byte[]>}
      */
-    public static String decryptApiKey(String encryptedApiKey, String secretKey) {
-        try {
-            // CryptoJS uses OpenSSL format which includes salt
-            // First, decode Base64
-            byte[] cipherData = java.util.Base64.getDecoder().decode(encryptedApiKey);
-
-            // CryptoJS format: "Salted__" + 8 byte salt + actual ciphertext
-            byte[] saltBytes = new byte[8];
-            byte[] cipherBytes = new byte[cipherData.length - 16];
-
-            // Extract salt and ciphertext
-            System.arraycopy(cipherData, 8, saltBytes, 0, 8);
-            System.arraycopy(cipherData, 16, cipherBytes, 0, cipherData.length - 16);
-
-            // Generate key and IV using OpenSSL EVP_BytesToKey derivation
-            byte[][] keyAndIV = EVP_BytesToKey(32, 16, secretKey.getBytes(StandardCharsets.UTF_8), saltBytes, 1);
-            byte[] key = keyAndIV[0];
-            byte[] iv = keyAndIV[1];
-
-            // Use AES/CBC/PKCS5Padding (which is what CryptoJS uses by default)
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-            javax.crypto.spec.IvParameterSpec ivSpec = new javax.crypto.spec.IvParameterSpec(iv);
+    public static Map<String, Object> prepareRequestChunks(UserConfigDO config, String messageText,
+                                                           List<ConversationMessageDO> conversationMessages, boolean stream) {
+        RequestBodyTemplate template = RequestBodyTemplate.of(config, stream);
+        if (template == null) {
+            Map<String, Object> requestData = prepareRequestData(config, messageText, conversationMessages);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> requestBody = (Map<String, Object>) requestData.get("requestBody");
+            if (stream) {
+                requestBody.put("stream", true);
+            }
+            requestData.put("requestBody", List.of(JsonUtils.toJsonByte(requestBody)));
+            return requestData;
+        }
 
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivSpec);
+        Map<String, Object> result = new HashMap<>();
+        result.put("headers", prepareHeaders(config, resolveApiKey(config)));
+        result.put("requestBody", template.render(conversationMessages, messageText));
+        return result;
+    }
 
-            byte[] decryptedBytes = cipher.doFinal(cipherBytes);
-            return new String(decryptedBytes, StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            log.error("Error decrypting API key", e);
-            throw new ServiceException(CONFIG_NOT_EXISTS, "Failed to decrypt API key: " + e.getMessage());
+    /**
+     * Gets the configuration's API key, decrypting it if it is encrypted and the secret key is set
+     *
+     * @param config The user configuration
+     * @return The API key in plain text
+     */
+    private static String resolveApiKey(UserConfigDO config) {
+        String apiKey = config.getApiKey();
+        if (apiKey != null && apiKey.startsWith("enc:") && StringUtils.hasText(config.getSecretKey())) {
+            apiKey = ApiKeyDecryptor.decryptCached(apiKey.substring(4), config.getSecretKey());
         }
+        return apiKey;
     }
 
     /**
-     * Implementation of OpenSSL's EVP_BytesToKey key derivation function
-     * This is used by CryptoJS to derive the key and IV from the password and salt
+     * Builds the request headers: the configured ones, the API key unless it goes into the body, and a JSON Content-Type
+     *
+     * @param config The user configuration
+     * @param apiKey The API key in plain text
+     * @return The headers
      */
-    private static byte[][] EVP_BytesToKey(int keyLen, int ivLen, byte[] password, byte[] salt, int iterations) {
-        byte[] key = new byte[keyLen];
-        byte[] iv = new byte[ivLen];
-
-        byte[] concatenatedHashBytes = new byte[0];
+    private static Map<String, String> prepareHeaders(UserConfigDO config, String apiKey) {
+        Map<String, String> headers = new HashMap<>(config.getHeaders() != null ? config.getHeaders() : new HashMap<>());
 
-        MessageDigest md5;
-        try {
-            md5 = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5 algorithm not available", e);
+        // Add API key to headers based on placement
+        if ("header".equals(config.getApiKeyPlacement()) || config.getApiKeyPlacement() == null) {
+            headers.put("Authorization", "Bearer " + apiKey);
+        } else if ("custom_header".equals(config.getApiKeyPlacement()) && config.getApiKeyHeader() != null) {
+            headers.put(config.getApiKeyHeader(), apiKey);
         }
 
-        int hashLen = 16; // MD5 hash length
-
-        int keyAndIvLen = keyLen + ivLen;
-        int numHashes = (keyAndIvLen + hashLen - 1) / hashLen;
-
-        byte[] result = new byte[numHashes * hashLen];
-        int resultLen = 0;
-
-        for (int i = 1; i <= numHashes; i++) {
-            // For the first hash, the data is just the password and salt
-            // For subsequent hashes, add the previous hash result
-            md5.reset();
-            if (i > 1) {
-                md5.update(concatenatedHashBytes);
-            }
-            md5.update(password);
-            if (salt != null) {
-                md5.update(salt);
-            }
-            concatenatedHashBytes = md5.digest();
-
-            // Perform additional iterations if requested
-            for (int j = 1; j < iterations; j++) {
-                md5.reset();
-                md5.update(concatenatedHashBytes);
-                concatenatedHashBytes = md5.digest();
-            }
-
-            // Copy the hash into the result buffer
-            System.arraycopy(
-                    concatenatedHashBytes, 0,
-                    result, resultLen,
-                    Math.min(concatenatedHashBytes.length, result.length - resultLen)
-            );
-            resultLen += concatenatedHashBytes.length;
+        // Ensure Content-Type header exists
+        if (!headers.containsKey("Content-Type")) {
+            headers.put("Content-Type", "application/json");
         }
+        return headers;
+    }
 
-        // Split the result into key and IV
-        System.arraycopy(result, 0, key, 0, keyLen);
-        System.arraycopy(result, keyLen, iv, 0, ivLen);
+    /**
+     * Deep copies a request template so that setting values by path never writes into the
+     * configuration's own template, which may be a cached instance shared with other requests
+     *
+     * @param template The request template
+     * @return A copy of the template with all nested maps and lists copied
+     */
+    static Map<String, Object> copyTemplate(Map<String, Object> template) {
+        Map<String, Object> copy = new HashMap<>(template.size());
+        template.forEach((key, value) -> copy.put(key, copyTemplateValue(value)));
+        return copy;
+    }
 
-        return new byte[][]{key, iv};
+    @SuppressWarnings("unchecked")
+    private static Object copyTemplateValue(Object value) {
+        if (value instanceof Map) {
+            return copyTemplate((Map<String, Object>) value);
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(item -> copy.add(copyTemplateValue(item)));
+            return copy;
+        }
+        return value;
     }
 
+    /**
+     * Method to decrypt an API key using AES decryption with the provided secret key
+     * This implementation is compatible with CryptoJS.AES encryption used in the frontend
+     * <p>
+     * Always decrypts, request preparation goes through the cache in {@link ApiKeyDecryptor} instead
+     *
+     * @param encryptedApiKey The encrypted API key
+     * @param secretKey       The secret key to use for decryption
+     * @return The decrypted API key
+     */
+    public static String decryptApiKey(String encryptedApiKey, String secretKey) {
+        return ApiKeyDecryptor.decrypt(encryptedApiKey, secretKey);
+    }
 
     private String append(String base, Map<String, ?> query, boolean fragment) {
         return append(base, query, null, fragment);
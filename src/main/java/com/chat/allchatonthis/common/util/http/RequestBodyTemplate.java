@@ -0,0 +1,163 @@
+package com.chat.allchatonthis.common.util.http;
+
+import com.chat.allchatonthis.common.util.json.CompiledJsonPath;
+import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.SneakyThrows;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A configuration's request template, serialized once into the bytes before and after its message group
+ * <p>
+ * The template is the same for every call, only the messages change, so rendering a request body comes down to
+ * writing the messages between the precompiled prefix and suffix. The result is the same JSON
+ * {@link HttpUtils#prepareRequestData(UserConfigDO, String, List)} builds as a map.
+ * <p>
+ * Compiled templates are cached by what they are built from: the template itself, the message group path, the
+ * message fields and role values, and the stream flag. Not by the configuration's update time, which every message
+ * moves when it marks the configuration as used. Configurations sharing a template share the compiled form.
+ * Configurations placing the API key in the body are never compiled, that would keep the decrypted key around.
+ */
+final class RequestBodyTemplate {
+
+    private static final Cache<TemplateKey, RequestBodyTemplate> CACHE = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(Duration.ofHours(1))
+            .build();
+
+    /**
+     * Initial buffer size for the serialized messages
+     */
+    private static final int INITIAL_MESSAGES_BUFFER = 4096;
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final String rolePath;
+    private final String textPath;
+    private final String userRoleValue;
+    private final String assistantRoleValue;
+
+    private RequestBodyTemplate(byte[] prefix, byte[] suffix, UserConfigDO config) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.rolePath = StringUtils.hasText(config.getRequestRolePathFromGroup()) ?
+                config.getRequestRolePathFromGroup() : "role";
+        this.textPath = StringUtils.hasText(config.getRequestTextPathFromGroup()) ?
+                config.getRequestTextPathFromGroup() : "content";
+        this.userRoleValue = StringUtils.hasText(config.getRequestUserRoleField()) ?
+                config.getRequestUserRoleField() : "user";
+        this.assistantRoleValue = StringUtils.hasText(config.getRequestAssistantField()) ?
+                config.getRequestAssistantField() : "assistant";
+    }
+
+    /**
+     * Get the compiled template of a configuration, compiling it on first use
+     *
+     * @param config The user configuration
+     * @param stream Whether the body asks for a streamed response
+     * @return The compiled template, or null if the configuration has no template or message group path, or puts
+     * the API key in the body
+     */
+    static RequestBodyTemplate of(UserConfigDO config, boolean stream) {
+        if (config.getRequestTemplate() == null
+                || !StringUtils.hasText(config.getRequestMessageGroupPath())
+                || "body".equals(config.getApiKeyPlacement())) {
+            return null;
+        }
+        TemplateKey key = new TemplateKey(config.getRequestTemplate(), config.getRequestMessageGroupPath(),
+                config.getRequestRolePathFromGroup(), config.getRequestTextPathFromGroup(),
+                config.getRequestUserRoleField(), config.getRequestAssistantField(), stream);
+        return CACHE.get(key, k -> compile(config, stream));
+    }
+
+    private static RequestBodyTemplate compile(UserConfigDO config, boolean stream) {
+        // Serialize the template with a unique placeholder where the messages go, then cut it out
+        String placeholder = "acot-message-group-" + UUID.randomUUID();
+        Map<String, Object> body = HttpUtils.copyTemplate(config.getRequestTemplate());
+        CompiledJsonPath.of(config.getRequestMessageGroupPath()).set(body, placeholder);
+        if (stream) {
+            body.put("stream", true);
+        }
+
+        String json = JsonUtils.toJsonString(body);
+        String quoted = '"' + placeholder + '"';
+        int hole = json.indexOf(quoted);
+        return new RequestBodyTemplate(
+                json.substring(0, hole).getBytes(StandardCharsets.UTF_8),
+                json.substring(hole + quoted.length()).getBytes(StandardCharsets.UTF_8),
+                config);
+    }
+
+    /**
+     * Render a request body
+     *
+     * @param conversationMessages Previous messages in the conversation, system messages are skipped
+     * @param messageText          The new user message, may be null
+     * @return The body as chunks to be written in order: the template prefix, the messages and the template suffix
+     */
+    @SneakyThrows
+    List<byte[]> render(List<ConversationMessageDO> conversationMessages, String messageText) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream(INITIAL_MESSAGES_BUFFER);
+        try (JsonGenerator generator = JsonUtils.createGenerator(messages)) {
+            generator.writeStartArray();
+            if (conversationMessages != null) {
+                for (ConversationMessageDO message : conversationMessages) {
+                    if ("system".equals(message.getRole())) {
+                        continue;
+                    }
+                    writeMessage(generator, mapRole(message.getRole()), message.getContent());
+                }
+            }
+            if (messageText != null) {
+                writeMessage(generator, userRoleValue, messageText);
+            }
+            generator.writeEndArray();
+        }
+        return List.of(prefix, messages.toByteArray(), suffix);
+    }
+
+    private String mapRole(String role) {
+        if ("user".equals(role)) {
+            return userRoleValue;
+        }
+        if ("assistant".equals(role)) {
+            return assistantRoleValue;
+        }
+        // Use the role as is for any other roles
+        return role;
+    }
+
+    /**
+     * Writes one message object, leaving out null fields as the shared ObjectMapper does
+     */
+    @SneakyThrows
+    private void writeMessage(JsonGenerator generator, String role, String text) {
+        generator.writeStartObject();
+        if (role != null) {
+            generator.writeStringField(rolePath, role);
+        }
+        if (text != null) {
+            generator.writeStringField(textPath, text);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Compared by value, the template map is the one of the cached configuration and is never modified
+     */
+    private record TemplateKey(Map<String, Object> requestTemplate, String messageGroupPath,
+                               String rolePath, String textPath, String userRoleValue, String assistantRoleValue,
+                               boolean stream) {
+    }
+}
@@ -0,0 +1,220 @@
+package com.chat.allchatonthis.common.util.json;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dot notation path (e.g. "choices[0].message.content") parsed once into steps
+ * <p>
+ * The paths in a configuration never change between requests, so they are parsed here once and reused;
+ * {@link #get(Map)} then walks the maps and lists without splitting, regex or allocation. It has the same
+ * semantics as {@link JsonUtils#extractValueFromPath(Map, String)} and {@link JsonUtils#setValueByPath(Map, String, Object)}.
+ * <p>
+ * Instances are immutable and shared, use {@link #of(String)} to obtain one.
+ */
+public final class CompiledJsonPath {
+
+    /**
+     * Compiled paths, keyed by the path string. The result depends on nothing but the string, so configurations
+     * using the same paths (most use the OpenAI defaults) share one instance.
+     */
+    private static final Cache<String, CompiledJsonPath> CACHE = Caffeine.newBuilder()
+            .maximumSize(1024)
+            .build();
+
+    private final String path;
+    /**
+     * Map key of each step, or null when the step is a list index
+     */
+    private final String[] keys;
+    /**
+     * List index of each step, only meaningful when the key is null
+     */
+    private final int[] indexes;
+
+    private CompiledJsonPath(String path, String[] keys, int[] indexes) {
+        this.path = path;
+        this.keys = keys;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Get the compiled form of a path, compiling it on first use
+     *
+     * @param path Path in dot notation
+     * @return The compiled path
+     * @throws IllegalArgumentException if an array index is not a non-negative integer
+     */
+    public static CompiledJsonPath of(String path) {
+        return CACHE.get(path, CompiledJsonPath::compile);
+    }
+
+    private static CompiledJsonPath compile(String path) {
+        List<String> keys = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('.', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            // The name before the first '[' is a key, each "[n]" after it an index into the list found there
+            int bracket = path.indexOf('[', start);
+            if (bracket < 0 || bracket > end) {
+                bracket = end;
+            }
+            keys.add(path.substring(start, bracket));
+            indexes.add(-1);
+            while (bracket < end) {
+                int close = path.indexOf(']', bracket);
+                if (close < 0 || close > end) {
+                    throw new IllegalArgumentException("Unclosed '[' in JSON path: " + path);
+                }
+                int index;
+                try {
+                    index = Integer.parseInt(path.substring(bracket + 1, close));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid array index in JSON path: " + path, e);
+                }
+                if (index < 0) {
+                    throw new IllegalArgumentException("Negative array index in JSON path: " + path);
+                }
+                keys.add(null);
+                indexes.add(index);
+                bracket = path.indexOf('[', close);
+                if (bracket < 0 || bracket > end) {
+                    bracket = end;
+                }
+            }
+            start = end + 1;
+        }
+
+        int[] indexArray = new int[indexes.size()];
+        for (int i = 0; i < indexArray.length; i++) {
+            indexArray[i] = indexes.get(i);
+        }
+        return new CompiledJsonPath(path, keys.toArray(new String[0]), indexArray);
+    }
+
+    /**
+     * Extract the value at this path
+     *
+     * @param data The data structure to extract from
+     * @return The value, or null if any step along the path is missing or of the wrong type
+     */
+    public Object get(Map<String, Object> data) {
+        return get(data, 0);
+    }
+
+    /**
+     * Walk the steps from {@code from} onwards, starting at a value already reached by the steps before it
+     */
+    Object get(Object value, int from) {
+        Object current = value;
+        for (int i = from; i < keys.length && current != null; i++) {
+            if (keys[i] != null) {
+                if (!(current instanceof Map<?, ?> map)) {
+                    return null;
+                }
+                current = map.get(keys[i]);
+            } else {
+                if (!(current instanceof List<?> list) || indexes[i] >= list.size()) {
+                    return null;
+                }
+                current = list.get(indexes[i]);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Extract the value at this path as a string
+     *
+     * @param data The data structure to extract from
+     * @return The value's string form, or null if not found
+     */
+    public String getString(Map<String, Object> data) {
+        Object value = get(data);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Set the value at this path, creating the intermediate maps and lists that are missing
+     * <p>
+     * Intermediate values of the wrong type are replaced, lists are padded with empty maps on the way
+     * and with nulls at the last step.
+     *
+     * @param data  The data structure to modify
+     * @param value The value to set
+     */
+    @SuppressWarnings("unchecked")
+    public void set(Map<String, Object> data, Object value) {
+        Object current = data;
+        int last = keys.length - 1;
+        for (int i = 0; i < last; i++) {
+            // The next step decides whether this one has to hold a map or a list
+            boolean nextIsIndex = keys[i + 1] == null;
+            if (keys[i] != null) {
+                Map<String, Object> map = (Map<String, Object>) current;
+                Object next = map.get(keys[i]);
+                if (nextIsIndex ? !(next instanceof List) : !(next instanceof Map)) {
+                    next = nextIsIndex ? new ArrayList<>() : new HashMap<String, Object>();
+                    map.put(keys[i], next);
+                }
+                current = next;
+            } else {
+                List<Object> list = (List<Object>) current;
+                while (list.size() <= indexes[i]) {
+                    list.add(new HashMap<String, Object>());
+                }
+                Object next = list.get(indexes[i]);
+                if (nextIsIndex ? !(next instanceof List) : !(next instanceof Map)) {
+                    next = nextIsIndex ? new ArrayList<>() : new HashMap<String, Object>();
+                    list.set(indexes[i], next);
+                }
+                current = next;
+            }
+        }
+
+        if (keys[last] != null) {
+            ((Map<String, Object>) current).put(keys[last], value);
+        } else {
+            List<Object> list = (List<Object>) current;
+            while (list.size() <= indexes[last]) {
+                list.add(null);
+            }
+            list.set(indexes[last], value);
+        }
+    }
+
+    /**
+     * @return The number of steps, a key or an index each
+     */
+    int length() {
+        return keys.length;
+    }
+
+    /**
+     * @return The map key of the step, or null if the step is a list index
+     */
+    String keyAt(int step) {
+        return keys[step];
+    }
+
+    /**
+     * @return The list index of the step, only meaningful when {@link #keyAt(int)} is null
+     */
+    int indexAt(int step) {
+        return indexes[step];
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,135 @@
+package com.chat.allchatonthis.common.util.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Extracts the values at a few {@link CompiledJsonPath}s from a JSON token stream
+ * <p>
+ * Only the subtrees the paths lead into are walked, every other value (usage, tool calls, logprobs...) is
+ * skipped by the parser without being materialized. The string form of each value is the same as
+ * {@link CompiledJsonPath#getString(java.util.Map)} on the fully parsed document.
+ *
+ * @see JsonUtils#extractValuesFromStream(java.io.InputStream, CompiledJsonPath...)
+ */
+final class JsonStreamExtractor {
+
+    /**
+     * Paths are tracked as bits of an int while walking
+     */
+    private static final int MAX_PATHS = Integer.SIZE - 1;
+
+    private JsonStreamExtractor() {
+    }
+
+    /**
+     * @param parser A parser positioned before the document
+     * @param paths  The paths to extract, null entries are allowed and yield null
+     * @return The values in the order of the paths, or null if the document is empty
+     */
+    static String[] extract(JsonParser parser, CompiledJsonPath... paths) throws IOException {
+        if (paths.length > MAX_PATHS) {
+            throw new IllegalArgumentException("At most " + MAX_PATHS + " paths can be extracted at once");
+        }
+        if (parser.nextToken() == null) {
+            return null;
+        }
+
+        String[] values = new String[paths.length];
+        int active = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] != null) {
+                active |= 1 << i;
+            }
+        }
+        if (active != 0) {
+            walk(parser, paths, 0, active, values);
+        }
+        return values;
+    }
+
+    /**
+     * Walks the value the parser is positioned on, which every path in {@code active} has reached after
+     * {@code depth} steps. On return the parser is at the last token of that value.
+     */
+    private static void walk(JsonParser parser, CompiledJsonPath[] paths, int depth, int active, String[] values) throws IOException {
+        JsonToken token = parser.currentToken();
+
+        int ending = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if ((active & 1 << i) != 0 && paths[i].length() == depth) {
+                ending |= 1 << i;
+            }
+        }
+        if (ending != 0) {
+            if (token.isStructStart()) {
+                // A path ends at an object or array, whose string form needs it in full; the paths continuing
+                // into it are resolved on the same copy
+                Object value = parser.readValueAs(Object.class);
+                for (int i = 0; i < paths.length; i++) {
+                    if ((active & 1 << i) != 0) {
+                        Object found = paths[i].get(value, depth);
+                        values[i] = found != null ? found.toString() : null;
+                    }
+                }
+                return;
+            }
+            String text = scalarText(parser, token);
+            for (int i = 0; i < paths.length; i++) {
+                if ((ending & 1 << i) != 0) {
+                    values[i] = text;
+                }
+            }
+            // The paths going deeper find nothing inside a scalar
+            return;
+        }
+
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                int matching = 0;
+                for (int i = 0; i < paths.length; i++) {
+                    if ((active & 1 << i) != 0 && name.equals(paths[i].keyAt(depth))) {
+                        matching |= 1 << i;
+                    }
+                }
+                parser.nextToken();
+                if (matching == 0) {
+                    parser.skipChildren();
+                } else {
+                    walk(parser, paths, depth + 1, matching, values);
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                int matching = 0;
+                for (int i = 0; i < paths.length; i++) {
+                    if ((active & 1 << i) != 0 && paths[i].keyAt(depth) == null && paths[i].indexAt(depth) == index) {
+                        matching |= 1 << i;
+                    }
+                }
+                if (matching == 0) {
+                    parser.skipChildren();
+                } else {
+                    walk(parser, paths, depth + 1, matching, values);
+                }
+                index++;
+            }
+        }
+    }
+
+    /**
+     * String form of a scalar, matching {@code toString()} of what the untyped Map deserialization produces
+     */
+    private static String scalarText(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue().toString();
+            case VALUE_EMBEDDED_OBJECT -> String.valueOf(parser.getEmbeddedObject());
+            default -> parser.getText();
+        };
+    }
+}
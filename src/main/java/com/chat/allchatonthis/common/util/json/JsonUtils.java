@@ -4,6 +4,9 @@ import cn.hutool.core.util.ArrayUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -14,9 +17,10 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -56,6 +60,18 @@ public class JsonUtils {
         return objectMapper.writeValueAsBytes(object);
     }
 
+    /**
+     * Creates a UTF-8 generator writing to the stream, configured like the shared ObjectMapper
+     *
+     * @param out The stream to write to
+     * @return The generator, closing it flushes but leaves the stream open
+     */
+    @SneakyThrows
+    public static JsonGenerator createGenerator(OutputStream out) {
+        return objectMapper.createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
     @SneakyThrows
     public static String toJsonPrettyString(Object object) {
         return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(object);
@@ -209,125 +225,67 @@ public class JsonUtils {
 
     /**
      * Extract a value from a nested JSON structure using dot notation path
+     * <p>
+     * The path is compiled once and cached, see {@link CompiledJsonPath}
      *
      * @param data The data structure to extract from
      * @param path Path in dot notation (e.g., "choices[0].message.content")
      * @return The extracted value as a string or null if not found
      */
-    @SuppressWarnings("unchecked")
     public static String extractValueFromPath(Map<String, Object> data, String path) {
-        String[] parts = path.split("\\.");
-        Object current = data;
-
-        for (String part : parts) {
-            if (current == null) {
-                return null;
-            }
+        return CompiledJsonPath.of(path).getString(data);
+    }
 
-            // Handle array notation like choices[0]
-            if (part.contains("[") && part.contains("]")) {
-                String arrayName = part.substring(0, part.indexOf('['));
-                int index = Integer.parseInt(part.substring(part.indexOf('[') + 1, part.indexOf(']')));
+    /**
+     * Extract values from a JSON document as it is read, without building the whole document in memory
+     * <p>
+     * Only the subtrees the paths lead into are visited, everything else is skipped by the parser.
+     * Each value has the same string form {@link #extractValueFromPath(Map, String)} would return.
+     *
+     * @param in    The JSON document
+     * @param paths The paths to extract, null entries yield null
+     * @return The values in the order of the paths (null for each one not found), or null if the document is empty
+     * @throws IOException if reading fails or the document is not valid JSON
+     */
+    public static String[] extractValuesFromStream(InputStream in, CompiledJsonPath... paths) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(in)) {
+            return JsonStreamExtractor.extract(parser, paths);
+        }
+    }
 
-                if (current instanceof Map) {
-                    Map<String, Object> map = (Map<String, Object>) current;
-                    if (map.containsKey(arrayName) && map.get(arrayName) instanceof List) {
-                        List<Object> array = (List<Object>) map.get(arrayName);
-                        if (index < array.size()) {
-                            current = array.get(index);
-                        } else {
-                            return null;
-                        }
-                    } else {
-                        return null;
-                    }
-                } else {
-                    return null;
-                }
-            } else {
-                // Regular property access
-                if (current instanceof Map) {
-                    current = ((Map<String, Object>) current).get(part);
-                } else {
-                    return null;
-                }
+    /**
+     * Derive the streaming (delta) counterpart of a response path
+     * <p>
+     * OpenAI-compatible providers put the whole message under {@code choices[0].message} in a regular
+     * response and the incremental chunk under {@code choices[0].delta} in a streamed one, so
+     * "choices[0].message.content" becomes "choices[0].delta.content".
+     *
+     * @param path Path in dot notation of the non-streaming response
+     * @return The equivalent path inside a streamed chunk, or the path itself if it has no "message" segment
+     */
+    public static String toDeltaPath(String path) {
+        if (StrUtil.isEmpty(path)) {
+            return path;
+        }
+        String[] parts = path.split("\\.");
+        for (int i = 0; i < parts.length; i++) {
+            if ("message".equals(parts[i])) {
+                parts[i] = "delta";
             }
         }
-
-        return current != null ? current.toString() : null;
+        return String.join(".", parts);
     }
 
     /**
      * Set a value in a nested JSON structure using dot notation path
+     * <p>
+     * The path is compiled once and cached, see {@link CompiledJsonPath}
      *
      * @param data The data structure to modify
      * @param path Path in dot notation (e.g., "messages[0].content")
      * @param value The value to set
      */
-    @SuppressWarnings("unchecked")
     public static void setValueByPath(Map<String, Object> data, String path, Object value) {
-        String[] parts = path.split("\\.");
-        Map<String, Object> current = data;
-
-        for (int i = 0; i < parts.length - 1; i++) {
-            String part = parts[i];
-
-            // Handle array notation
-            if (part.contains("[") && part.contains("]")) {
-                String arrayName = part.substring(0, part.indexOf('['));
-                int index = Integer.parseInt(part.substring(part.indexOf('[') + 1, part.indexOf(']')));
-
-                // Create array if it doesn't exist
-                if (!current.containsKey(arrayName) || !(current.get(arrayName) instanceof List)) {
-                    current.put(arrayName, new ArrayList<>());
-                }
-
-                List<Object> array = (List<Object>) current.get(arrayName);
-
-                // Ensure array is large enough
-                while (array.size() <= index) {
-                    array.add(new HashMap<String, Object>());
-                }
-
-                // Move to the next level
-                if (!(array.get(index) instanceof Map)) {
-                    array.set(index, new HashMap<String, Object>());
-                }
-
-                current = (Map<String, Object>) array.get(index);
-            } else {
-                // Regular property access
-                if (!current.containsKey(part) || !(current.get(part) instanceof Map)) {
-                    current.put(part, new HashMap<String, Object>());
-                }
-                current = (Map<String, Object>) current.get(part);
-            }
-        }
-
-        // Set the final value
-        String lastPart = parts[parts.length - 1];
-
-        // Handle array notation for the last part
-        if (lastPart.contains("[") && lastPart.contains("]")) {
-            String arrayName = lastPart.substring(0, lastPart.indexOf('['));
-            int index = Integer.parseInt(lastPart.substring(lastPart.indexOf('[') + 1, lastPart.indexOf(']')));
-
-            // Create array if it doesn't exist
-            if (!current.containsKey(arrayName) || !(current.get(arrayName) instanceof List)) {
-                current.put(arrayName, new ArrayList<>());
-            }
-
-            List<Object> array = (List<Object>) current.get(arrayName);
-
-            // Ensure array is large enough
-            while (array.size() <= index) {
-                array.add(null);
-            }
-
-            array.set(index, value);
-        } else {
-            // Regular property set
-            current.put(lastPart, value);
-        }
+        CompiledJsonPath.of(path).set(data, value);
     }
 }
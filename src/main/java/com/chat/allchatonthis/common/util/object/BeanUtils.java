@@ -1,6 +1,7 @@
 package com.chat.allchatonthis.common.util.object;
 
 import cn.hutool.core.bean.BeanUtil;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
 import com.chat.allchatonthis.common.pojo.PageResult;
 import com.chat.allchatonthis.common.util.collection.CollectionUtils;
 
@@ -55,6 +56,13 @@ public class BeanUtils {
         return new PageResult<>(list, source.getTotal());
     }
 
+    public static <S, T> CursorPageResult<T> toBean(CursorPageResult<S> source, Class<T> targetType) {
+        if (source == null) {
+            return null;
+        }
+        return new CursorPageResult<>(toBean(source.getList(), targetType), source.getNextCursor(), source.getTotal());
+    }
+
     public static void copyProperties(Object source, Object target) {
         if (source == null || target == null) {
             return;
@@ -4,11 +4,18 @@ import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.lang.func.Func1;
 import cn.hutool.core.lang.func.LambdaUtil;
 import cn.hutool.core.util.ArrayUtil;
+import com.chat.allchatonthis.common.pojo.CursorPageParam;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
+import com.chat.allchatonthis.common.pojo.PageCursor;
 import com.chat.allchatonthis.common.pojo.PageParam;
 import com.chat.allchatonthis.common.pojo.SortablePageParam;
 import com.chat.allchatonthis.common.pojo.SortingField;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
 import static java.util.Collections.singletonList;
 
 /**
@@ -62,4 +69,32 @@ public class PageUtils {
         }
     }
 
+    /**
+     * 游标分页查询的 LIMIT，多查一条用于判断是否还有下一页
+     *
+     * @param pageParam 游标分页参数
+     * @return LIMIT 子句
+     */
+    public static String buildCursorLimit(CursorPageParam pageParam) {
+        return "LIMIT " + (pageParam.getPageSize() + 1);
+    }
+
+    /**
+     * 构建游标分页结果
+     *
+     * @param records   按 {@link #buildCursorLimit(CursorPageParam)} 查询的记录，会被截断为一页
+     * @param pageParam 游标分页参数
+     * @param cursorOf  记录对应的游标位置
+     * @param total     总量，未查询时为空
+     * @return 游标分页结果
+     */
+    public static <T> CursorPageResult<T> buildCursorPageResult(List<T> records, CursorPageParam pageParam,
+                                                                Function<T, PageCursor> cursorOf, Long total) {
+        if (records.size() <= pageParam.getPageSize()) {
+            return new CursorPageResult<>(records, null, total);
+        }
+        List<T> page = new ArrayList<>(records.subList(0, pageParam.getPageSize()));
+        return new CursorPageResult<>(page, cursorOf.apply(page.get(page.size() - 1)).encode(), total);
+    }
+
 }
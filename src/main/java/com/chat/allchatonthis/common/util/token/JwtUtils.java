@@ -1,9 +1,11 @@
 package com.chat.allchatonthis.common.util.token;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
@@ -12,6 +14,7 @@ import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 import java.util.function.Function;
 
 @Component
@@ -23,8 +26,22 @@ public class JwtUtils {
     @Value("${jwt.expiration:86400000}") // Default: 24 hours
     private long expiration;
 
+    /**
+     * Signing key and parser depend on the secret only, so they are built once instead of on every call
+     */
+    private Key signingKey;
+    private JwtParser jwtParser;
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        jwtParser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+    }
+
     private Key getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
+        return signingKey;
     }
 
     public String generateToken(UserDetails userDetails) {
@@ -35,10 +52,20 @@ public class JwtUtils {
         return createToken(claims, userDetails.getUsername());
     }
 
-    public String generateToken(String username, Long userId, Integer loginType) {
+    /**
+     * Generate a token for a user
+     *
+     * @param username     Username, the token subject
+     * @param userId       User ID
+     * @param loginType    Login type
+     * @param tokenVersion The user's current token version, revoking all tokens of the user bumps it
+     * @return The JWT
+     */
+    public String generateToken(String username, Long userId, Integer loginType, long tokenVersion) {
         Map<String, Object> claims = new HashMap<>();
         claims.put("userId", userId);
         claims.put("loginType", loginType);
+        claims.put("ver", tokenVersion);
         return createToken(claims, username);
     }
 
@@ -49,6 +76,8 @@ public class JwtUtils {
         return Jwts.builder()
                 .setClaims(claims)
                 .setSubject(subject)
+                // Token id, lets a single token be revoked
+                .setId(UUID.randomUUID().toString())
                 .setIssuedAt(now)
                 .setExpiration(expiryDate)
                 .signWith(getSigningKey(), SignatureAlgorithm.HS512)
@@ -56,8 +85,8 @@ public class JwtUtils {
     }
 
     public Boolean validateToken(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+        final Claims claims = parseClaims(token);
+        return (claims.getSubject().equals(userDetails.getUsername()) && !claims.getExpiration().before(new Date()));
     }
 
     public String extractUsername(String token) {
@@ -81,10 +110,19 @@ public class JwtUtils {
         return claimsResolver.apply(claims);
     }
 
+    /**
+     * Parse and verify a token once, for callers that need several claims
+     *
+     * @param token The JWT
+     * @return The claims of the token
+     * @throws io.jsonwebtoken.JwtException if the signature is invalid or the token has expired
+     */
+    public Claims parseClaims(String token) {
+        return extractAllClaims(token);
+    }
+
     private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
+        return jwtParser
                 .parseClaimsJws(token)
                 .getBody();
     }
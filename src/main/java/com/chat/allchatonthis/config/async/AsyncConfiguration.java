@@ -0,0 +1,63 @@
+package com.chat.allchatonthis.config.async;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Configuration for asynchronous execution
+ */
+@Configuration
+public class AsyncConfiguration {
+
+    /**
+     * Bean name of the executor relaying streamed upstream responses to SSE clients
+     */
+    public static final String MESSAGE_STREAM_EXECUTOR = "messageStreamExecutor";
+
+    /**
+     * Executor that runs streamed chat generations off the servlet thread.
+     * <p>
+     * Each task holds an upstream connection for the whole generation, so the pool is sized for
+     * long-running, mostly idle work. When saturated, the caller runs the task so the request
+     * still completes instead of being rejected.
+     *
+     * @return ThreadPoolTaskExecutor instance
+     */
+    @Bean(name = MESSAGE_STREAM_EXECUTOR)
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor messageStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(8);
+        executor.setMaxPoolSize(64);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("message-stream-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Virtual thread variant of {@link #messageStreamExecutor()}, used when spring.threads.virtual.enabled is true.
+     * <p>
+     * A generation spends nearly all its time blocked on the upstream socket, which costs a virtual thread
+     * almost nothing, so every stream gets its own thread and no pool limit applies.
+     *
+     * @return SimpleAsyncTaskExecutor instance
+     */
+    @Bean(name = MESSAGE_STREAM_EXECUTOR)
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor virtualMessageStreamExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("message-stream-");
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+}
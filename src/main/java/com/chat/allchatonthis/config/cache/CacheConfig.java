@@ -4,19 +4,29 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateSerializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
-import org.springframework.boot.autoconfigure.cache.RedisCacheManagerBuilderCustomizer;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.RedisSerializer;
@@ -28,12 +38,15 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
 
 /**
- * Cache configuration for Redis
+ * Cache configuration for Redis with an in-process near-cache
  */
 @Configuration
 @EnableCaching
+@EnableConfigurationProperties(CacheSerializationProperties.class)
 public class CacheConfig {
 
     private static final Duration DEFAULT_TTL = Duration.ofHours(1);
@@ -42,30 +55,8 @@ public class CacheConfig {
     private static final Duration LONG_TTL = Duration.ofHours(2);
     private static final Duration EXTENDED_TTL = Duration.ofHours(4);
 
-    /**
-     * Customizes the default Redis cache manager with TTL per cache type
-     *
-     * @return RedisCacheManagerBuilderCustomizer instance
-     */
-    @Bean
-    public RedisCacheManagerBuilderCustomizer redisCacheManagerBuilderCustomizer() {
-        Map<String, RedisCacheConfiguration> configMap = new HashMap<>();
-
-        // Frequently accessed but short-lived data
-        configMap.put("conversation", createRedisCacheConfigurationWithTtl(MEDIUM_TTL));
-        configMap.put("conversation_message", createRedisCacheConfigurationWithTtl(MEDIUM_TTL));
-
-        // User configurations - accessed less frequently but needs to remain valid longer
-        configMap.put("user_config", createRedisCacheConfigurationWithTtl(LONG_TTL));
-
-        // Core user data - accessed very frequently and cached longer
-        configMap.put("user", createRedisCacheConfigurationWithTtl(LONG_TTL));
-
-        // Add preference cache with appropriate TTL
-        configMap.put("preference", createRedisCacheConfigurationWithTtl(LONG_TTL));
-
-        return (builder) -> builder.withInitialCacheConfigurations(configMap);
-    }
+    private static final Duration LOCAL_TTL = Duration.ofMinutes(5);
+    private static final long LOCAL_MAX_SIZE = 10_000;
 
     /**
      * RedisTemplate configuration
@@ -92,22 +83,110 @@ public class CacheConfig {
     }
 
     /**
-     * Configures the Redis cache manager with settings
+     * Configures the two-level cache manager: a Caffeine near-cache (L1) in front of Redis (L2)
+     * <p>
+     * Transaction awareness is applied once on the outer manager, so evictions inside a transaction
+     * reach both levels and other nodes only after commit. Loads are coalesced across nodes when a
+     * Redisson client is available.
      */
     @Bean
-    public RedisCacheManager cacheManager(RedisConnectionFactory connectionFactory) {
-        // Configure default cache with serialization and compression
-        RedisCacheConfiguration config = RedisCacheConfiguration.defaultCacheConfig()
-                .entryTtl(DEFAULT_TTL)
-                .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(keySerializer()))
-                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(valueSerializer()))
-                .disableCachingNullValues()
-                .prefixCacheNameWith("acot_"); // Consistent prefix for all cache keys
+    @Primary
+    public TwoLevelCacheManager cacheManager(RedisConnectionFactory connectionFactory,
+                                             CacheGenerations cacheGenerations,
+                                             CacheInvalidationPublisher cacheInvalidationPublisher,
+                                             CacheSerializationProperties cacheSerializationProperties,
+                                             ObjectProvider<RedissonClient> redissonClient,
+                                             MeterRegistry meterRegistry) {
+        RedisCacheManager redisCacheManager = redisCacheManager(connectionFactory, cacheGenerations,
+                cacheValueSerializers(cacheSerializationProperties, meterRegistry));
+        TwoLevelCacheManager cacheManager = new TwoLevelCacheManager(redisCacheManager,
+                localCacheSpecs(), cacheGenerations, cacheInvalidationPublisher, redissonClient.getIfAvailable(),
+                meterRegistry);
+        cacheManager.setTransactionAware(true);
+        return cacheManager;
+    }
+
+    /**
+     * Generation counters versioning the key namespace of each cache, see {@link CacheGenerations}
+     */
+    @Bean
+    public CacheGenerations cacheGenerations(StringRedisTemplate stringRedisTemplate) {
+        return new CacheGenerations(stringRedisTemplate);
+    }
+
+    /**
+     * Publishes L1 invalidations to the other nodes
+     * <p>
+     * Uses the plain StringRedisTemplate, the transactional redisTemplate would hold the message back
+     * inside MULTI/EXEC.
+     */
+    @Bean
+    public CacheInvalidationPublisher cacheInvalidationPublisher(StringRedisTemplate stringRedisTemplate) {
+        return new CacheInvalidationPublisher(stringRedisTemplate, UUID.randomUUID().toString());
+    }
 
-        return RedisCacheManager.builder(connectionFactory)
-                .cacheDefaults(config)
-                .transactionAware()
+    /**
+     * Subscribes the two-level cache manager to invalidations published by other nodes
+     */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                            TwoLevelCacheManager cacheManager) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(cacheManager, new ChannelTopic(CacheInvalidationPublisher.CHANNEL));
+        return container;
+    }
+
+    /**
+     * Creates the Redis (L2) cache manager with TTL per cache type
+     *
+     * @param valueSerializers Value serializer by cache name, "default" for caches not listed here
+     */
+    private RedisCacheManager redisCacheManager(RedisConnectionFactory connectionFactory, CacheGenerations cacheGenerations,
+                                                Function<String, RedisSerializer<Object>> valueSerializers) {
+        Map<String, RedisCacheConfiguration> configMap = new HashMap<>();
+
+        // Frequently accessed but short-lived data
+        configMap.put("conversation", createRedisCacheConfigurationWithTtl(MEDIUM_TTL, cacheGenerations,
+                valueSerializers.apply("conversation")));
+        configMap.put("conversation_message", createRedisCacheConfigurationWithTtl(MEDIUM_TTL, cacheGenerations,
+                valueSerializers.apply("conversation_message")));
+
+        // User configurations - accessed less frequently but needs to remain valid longer
+        configMap.put("user_config", createRedisCacheConfigurationWithTtl(LONG_TTL, cacheGenerations,
+                valueSerializers.apply("user_config")));
+
+        // Core user data - accessed very frequently and cached longer
+        configMap.put("user", createRedisCacheConfigurationWithTtl(LONG_TTL, cacheGenerations,
+                valueSerializers.apply("user")));
+
+        // Add preference cache with appropriate TTL
+        configMap.put("preference", createRedisCacheConfigurationWithTtl(LONG_TTL, cacheGenerations,
+                valueSerializers.apply("preference")));
+
+        // Not transaction aware on its own, the two-level manager decorates the caches instead
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(connectionFactory)
+                .cacheDefaults(createRedisCacheConfigurationWithTtl(DEFAULT_TTL, cacheGenerations,
+                        valueSerializers.apply("default")))
+                .withInitialCacheConfigurations(configMap)
                 .build();
+        redisCacheManager.afterPropertiesSet();
+        return redisCacheManager;
+    }
+
+    /**
+     * L1 size and TTL per cache
+     * <p>
+     * The L1 TTL is kept short, it bounds staleness when an invalidation broadcast is missed.
+     * conversation_message holds whole message lists and is left to Redis only.
+     */
+    private Map<String, Caffeine<Object, Object>> localCacheSpecs() {
+        Map<String, Caffeine<Object, Object>> specs = new HashMap<>();
+        specs.put("conversation", Caffeine.newBuilder().maximumSize(LOCAL_MAX_SIZE).expireAfterWrite(LOCAL_TTL));
+        specs.put("user_config", Caffeine.newBuilder().maximumSize(LOCAL_MAX_SIZE).expireAfterWrite(LOCAL_TTL));
+        specs.put("user", Caffeine.newBuilder().maximumSize(LOCAL_MAX_SIZE).expireAfterWrite(LOCAL_TTL));
+        specs.put("preference", Caffeine.newBuilder().maximumSize(LOCAL_MAX_SIZE).expireAfterWrite(LOCAL_TTL));
+        return specs;
     }
 
     /**
@@ -120,7 +199,7 @@ public class CacheConfig {
     /**
      * value serializer with better type handling
      */
-    private RedisSerializer<Object> valueSerializer() {
+    static RedisSerializer<Object> valueSerializer() {
         ObjectMapper om = new ObjectMapper();
         om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
 
@@ -145,17 +224,53 @@ public class CacheConfig {
         return new Jackson2JsonRedisSerializer<>(om, Object.class);
     }
 
+    /**
+     * Value serializers of the Redis caches, writing the format configured for each cache, see
+     * {@link VersionedCacheSerializer}
+     * <p>
+     * The redisTemplate keeps the plain JSON serializer, its values are read by Lua scripts.
+     */
+    private Function<String, RedisSerializer<Object>> cacheValueSerializers(CacheSerializationProperties properties,
+                                                                           MeterRegistry meterRegistry) {
+        RedisSerializer<Object> jsonSerializer = valueSerializer();
+        ObjectMapper smileMapper = smileMapper();
+        return cacheName -> new VersionedCacheSerializer(cacheName, properties.formatOf(cacheName),
+                jsonSerializer, smileMapper, properties.getCompressionThreshold(), meterRegistry);
+    }
+
+    /**
+     * Smile mapper with the same type handling as the JSON value serializer
+     * <p>
+     * Repeated short strings, such as the class name of each element of a list, are written once and
+     * referenced afterwards. Dates are written as arrays of numbers, smaller than formatted strings.
+     */
+    static ObjectMapper smileMapper() {
+        SmileFactory factory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        ObjectMapper om = new ObjectMapper(factory);
+        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        om.activateDefaultTyping(om.getPolymorphicTypeValidator(),
+                ObjectMapper.DefaultTyping.NON_FINAL);
+        om.registerModule(new JavaTimeModule());
+        return om;
+    }
+
     /**
      * Creates an Redis cache configuration with specific TTL
      *
-     * @param ttl Time-to-live duration
+     * @param ttl              Time-to-live duration
+     * @param cacheGenerations Generation counters used in the key prefix
+     * @param valueSerializer  Serializer of the cached values
      * @return Redis cache configuration
      */
-    private RedisCacheConfiguration createRedisCacheConfigurationWithTtl(Duration ttl) {
+    private RedisCacheConfiguration createRedisCacheConfigurationWithTtl(Duration ttl, CacheGenerations cacheGenerations,
+                                                                         RedisSerializer<Object> valueSerializer) {
         return RedisCacheConfiguration.defaultCacheConfig()
                 .entryTtl(ttl)
                 .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(keySerializer()))
-                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(valueSerializer()))
-                .disableCachingNullValues();
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(valueSerializer))
+                .disableCachingNullValues()
+                .computePrefixWith(cacheGenerations::keyPrefix); // acot_{cache}:v{generation}:: for all cache keys
     }
 } 
\ No newline at end of file
@@ -2,16 +2,18 @@ package com.chat.allchatonthis.config.cache;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Manages cache eviction policies and provides methods for cache management
+ * <p>
+ * Clearing a cache moves it to a new key generation instead of deleting its keys, see {@link CacheGenerations},
+ * so no Redis command has to walk the keyspace.
  */
 @Component
 @RequiredArgsConstructor
@@ -26,7 +28,7 @@ public class CacheEvictionManager {
             "user",
             "preference"
     );
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final CacheManager cacheManager;
 
     /**
      * Clears all caches by cache name
@@ -43,13 +45,12 @@ public class CacheEvictionManager {
      */
     public void clearCache(String cacheName) {
         log.info("Clearing cache: {}", cacheName);
-        String keyPattern = "acot_" + cacheName + "::*";
-        Set<String> keys = redisTemplate.keys(keyPattern);
-        if (keys != null && !keys.isEmpty()) {
-            redisTemplate.delete(keys);
-            log.info("Cleared {} keys from cache {}", keys.size(), cacheName);
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.clear();
+            log.info("Cleared cache {}", cacheName);
         } else {
-            log.info("No keys found to clear in cache {}", cacheName);
+            log.warn("Cache '{}' not found in cache manager", cacheName);
         }
     }
 
@@ -61,19 +62,17 @@ public class CacheEvictionManager {
     public void clearUserCache(Long userId) {
         log.info("Clearing caches for user: {}", userId);
 
-        // Clear user-specific caches
-        List<String> userCachePatterns = Arrays.asList(
-                "acot_user::*" + userId + "*",
-                "acot_user_config::list:" + userId,
-                "acot_preference::" + userId
-        );
+        // Clear user-specific caches, the keys match the ones used by the @Cacheable methods
+        evict("user", userId);
+        evict("user_config", "list:" + userId);
+        evict("preference", userId);
+    }
 
-        userCachePatterns.forEach(pattern -> {
-            Set<String> keys = redisTemplate.keys(pattern);
-            if (!keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                log.info("Cleared {} keys matching pattern {}", keys.size(), pattern);
-            }
-        });
+    private void evict(String cacheName, Object key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.evict(key);
+            log.info("Cleared key {} from cache {}", key, cacheName);
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package com.chat.allchatonthis.config.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+
+/**
+ * Per-cache generation counters used to version the Redis key namespace of each cache
+ * <p>
+ * Keys are written as "acot_{cache}:v{generation}::{key}". Clearing a cache increments its generation,
+ * which moves all nodes to a new, empty namespace in O(1). Entries of the old generation are never read
+ * again and expire through their TTL, so no command has to walk the keyspace.
+ */
+public class CacheGenerations {
+
+    private static final String GENERATION_KEY_PREFIX = "acot_cache_generation:";
+
+    /**
+     * How long a node trusts its local copy of a generation. Clears are broadcast and refresh the copy
+     * right away, this only bounds staleness when a broadcast is missed.
+     */
+    private static final Duration LOCAL_TTL = Duration.ofSeconds(30);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final LoadingCache<String, Long> generations;
+
+    public CacheGenerations(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.generations = Caffeine.newBuilder()
+                .expireAfterWrite(LOCAL_TTL)
+                .build(this::load);
+    }
+
+    /**
+     * Returns the Redis key prefix of the current generation of a cache
+     *
+     * @param cacheName The cache name
+     * @return The key prefix, e.g. "acot_user:v3::"
+     */
+    public String keyPrefix(String cacheName) {
+        return "acot_" + cacheName + ":v" + generations.get(cacheName) + "::";
+    }
+
+    /**
+     * Moves a cache to a new generation, making all its current entries unreachable
+     *
+     * @param cacheName The cache name
+     */
+    public void next(String cacheName) {
+        Long generation = stringRedisTemplate.opsForValue().increment(GENERATION_KEY_PREFIX + cacheName);
+        if (generation != null) {
+            generations.put(cacheName, generation);
+        }
+    }
+
+    /**
+     * Drops the local copy of a generation, the next access reads it from Redis
+     *
+     * @param cacheName The cache name
+     */
+    public void refresh(String cacheName) {
+        generations.invalidate(cacheName);
+    }
+
+    private Long load(String cacheName) {
+        String generation = stringRedisTemplate.opsForValue().get(GENERATION_KEY_PREFIX + cacheName);
+        return generation != null ? Long.parseLong(generation) : 0L;
+    }
+}
@@ -0,0 +1,73 @@
+package com.chat.allchatonthis.config.cache;
+
+import com.chat.allchatonthis.common.util.json.JsonUtils;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * Broadcasts L1 cache invalidations to the other nodes through Redis pub/sub
+ */
+@Slf4j
+@AllArgsConstructor
+public class CacheInvalidationPublisher {
+
+    /**
+     * Redis channel carrying {@link CacheInvalidationMessage}s
+     */
+    public static final String CHANNEL = "acot_cache_invalidation";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * Identifies this node so it can ignore its own broadcasts
+     */
+    private final String nodeId;
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Asks the other nodes to drop a single key from their L1
+     *
+     * @param cacheName The cache name
+     * @param key       The string form of the cache key
+     */
+    public void publishEvict(String cacheName, String key) {
+        publish(new CacheInvalidationMessage(nodeId, cacheName, key));
+    }
+
+    /**
+     * Asks the other nodes to drop all entries of a cache from their L1
+     *
+     * @param cacheName The cache name
+     */
+    public void publishClear(String cacheName) {
+        publish(new CacheInvalidationMessage(nodeId, cacheName, null));
+    }
+
+    private void publish(CacheInvalidationMessage message) {
+        try {
+            stringRedisTemplate.convertAndSend(CHANNEL, JsonUtils.toJsonString(message));
+        } catch (Exception e) {
+            // The L1 TTL bounds how long other nodes can serve the stale entry
+            log.error("Failed to publish cache invalidation for cache {}: {}", message.getCacheName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Invalidation broadcast between nodes, a null key clears the whole cache
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CacheInvalidationMessage {
+
+        private String nodeId;
+        private String cacheName;
+        private String key;
+    }
+}
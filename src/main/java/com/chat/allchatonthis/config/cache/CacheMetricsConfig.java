@@ -6,11 +6,13 @@ import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -30,8 +32,32 @@ public class CacheMetricsConfig {
             "user",
             "preference"
     );
+    /**
+     * Maximum number of SCAN calls per cache, so at most about 50,000 keys are examined whatever the keyspace
+     * size. A cache whose keys were not all reached is reported as "at least" the count found.
+     */
+    private static final int SCAN_CALL_BUDGET = 100;
+
+    /**
+     * Keys examined per SCAN call, keeps every call short on the request-serving cluster
+     */
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    /**
+     * Runs one SCAN step and returns the next cursor with the number of matching keys, the keys themselves are
+     * never transferred. Unlike a client cursor, which keeps scanning until a batch has a match, a step is
+     * bounded by COUNT even when the pattern matches nothing.
+     * ARGV: cursor, pattern, count
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SCAN_STEP_SCRIPT = new DefaultRedisScript<>("""
+            local result = redis.call('SCAN', ARGV[1], 'MATCH', ARGV[2], 'COUNT', ARGV[3])
+            return {result[1], #result[2]}
+            """, List.class);
+
     private final CacheManager cacheManager;
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final CacheGenerations cacheGenerations;
+    private final StringRedisTemplate stringRedisTemplate;
 
     /**
      * Creates a scheduled task to monitor cache sizes
@@ -60,12 +86,16 @@ public class CacheMetricsConfig {
         MONITORED_CACHES.forEach(cacheName -> {
             Cache cache = cacheManager.getCache(cacheName);
             if (cache != null) {
-                // Get estimated size by counting keys with the cache name pattern
-                String keyPattern = "acot_" + cacheName + "::*";
-                Set<String> keys = redisTemplate.keys(keyPattern);
-                int size = keys.size();
+                // Get estimated size by counting keys of the current generation with incremental SCAN
+                String keyPattern = cacheGenerations.keyPrefix(cacheName) + "*";
+                KeyCount count = countKeys(keyPattern);
+                long size = count.keys();
 
-                log.info("Cache '{}': {} entries", cacheName, size);
+                if (!count.complete()) {
+                    log.info("Cache '{}': at least {} entries (scan budget reached)", cacheName, size);
+                } else {
+                    log.info("Cache '{}': {} entries", cacheName, size);
+                }
 
                 // Log if cache size seems unusually large (might need tuning)
                 if (size > 10000) {
@@ -80,4 +110,35 @@ public class CacheMetricsConfig {
         log.info("=========================");
     }
 
+    /**
+     * Counts keys matching a pattern with SCAN, stopping after {@link #SCAN_CALL_BUDGET} calls
+     *
+     * @param keyPattern The key pattern
+     * @return The number of matching keys found, a lower bound if the scan did not complete
+     */
+    private KeyCount countKeys(String keyPattern) {
+        String cursor = "0";
+        long keys = 0;
+        for (int call = 0; call < SCAN_CALL_BUDGET; call++) {
+            List<?> step = stringRedisTemplate.execute(SCAN_STEP_SCRIPT, Collections.emptyList(),
+                    cursor, keyPattern, String.valueOf(SCAN_BATCH_SIZE));
+            if (step == null || step.size() < 2) {
+                break;
+            }
+            cursor = String.valueOf(step.get(0));
+            keys += ((Number) step.get(1)).longValue();
+            if ("0".equals(cursor)) {
+                return new KeyCount(keys, true);
+            }
+        }
+        return new KeyCount(keys, false);
+    }
+
+    /**
+     * @param keys     The number of matching keys found
+     * @param complete Whether the whole keyspace was scanned, otherwise keys is a lower bound
+     */
+    private record KeyCount(long keys, boolean complete) {
+    }
+
 } 
\ No newline at end of file
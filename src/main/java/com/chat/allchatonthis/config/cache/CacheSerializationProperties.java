@@ -0,0 +1,55 @@
+package com.chat.allchatonthis.config.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoding of the values stored in the Redis (L2) caches, see {@link VersionedCacheSerializer}
+ * <p>
+ * Values of every supported encoding are always readable, the format only selects how new values are written.
+ * To move a running cluster from JSON to Smile, first deploy with format json so every node can read Smile,
+ * then switch the format.
+ */
+@Data
+@ConfigurationProperties(prefix = "acot.cache.serialization")
+public class CacheSerializationProperties {
+
+    /**
+     * Format of the caches without their own entry in {@link #formats}
+     */
+    private Format format = Format.JSON;
+
+    /**
+     * Format by cache name, overriding {@link #format}
+     */
+    private Map<String, Format> formats = new HashMap<>();
+
+    /**
+     * Smile values of at least this many bytes are Deflate compressed, 0 or less disables compression
+     */
+    private int compressionThreshold = 1024;
+
+    public enum Format {
+
+        /**
+         * Jackson JSON with class names, without header: the encoding of all values written before Smile
+         */
+        JSON,
+
+        /**
+         * Jackson Smile, binary JSON with back-references to repeated names and short strings
+         */
+        SMILE
+    }
+
+    /**
+     * @param cacheName The cache name
+     * @return The format values of the cache are written in
+     */
+    public Format formatOf(String cacheName) {
+        return formats.getOrDefault(cacheName, format);
+    }
+}
@@ -0,0 +1,459 @@
+package com.chat.allchatonthis.config.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.data.redis.cache.RedisCache;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Cache with an in-process Caffeine near-cache (L1) in front of a Redis cache (L2)
+ * <p>
+ * Reads are served from L1 when possible and fall through to L2, filling L1 on an L2 hit.
+ * Every write or eviction is applied to both levels and broadcast so other nodes drop their L1 copy.
+ * L1 keys are the string form of the cache key, the same form Redis uses, so keys survive the broadcast.
+ * Caches without a near-cache have no L1 and only use L2.
+ * <p>
+ * Clearing does not delete keys in Redis, it moves the cache to a new generation, see {@link CacheGenerations}.
+ * <p>
+ * L1 hands out the cached instance itself, callers must copy a cached object before modifying it.
+ * <p>
+ * Loading through {@link #get(Object, Callable)} (@Cacheable with sync = true) is single-flight:
+ * - concurrent misses of a key on one node wait for the first one's load instead of running it again, up to
+ * {@link #LOAD_WAIT}, after which they load themselves
+ * - with Redisson available, the loader also takes a short per-key lock, so a miss on several nodes at once
+ * loads on one of them and the others read its result from L2. A lock not obtained in time is given up on,
+ * the load then runs without it.
+ * - a key this node loaded is refreshed ahead of its L2 expiry with a probability growing as the expiry
+ * nears and with the time the load took (XFetch), so a hot key is reloaded by a single request before it
+ * expires rather than by all of them after.
+ */
+@Slf4j
+public class TwoLevelCache implements Cache {
+
+    private static final String LOCK_KEY_PREFIX = "acot_cache_lock:";
+
+    /**
+     * How long a miss waits for another node's load of the same key
+     */
+    private static final Duration LOCK_WAIT = Duration.ofMillis(500);
+
+    /**
+     * Bounds how long a crashed node holds a key's lock
+     */
+    private static final Duration LOCK_LEASE = Duration.ofSeconds(10);
+
+    /**
+     * How long a miss waits for a load of the same key on this node, before loading itself
+     */
+    private static final Duration LOAD_WAIT = Duration.ofSeconds(5);
+
+    /**
+     * Weight of the load time in the early refresh decision, above 1 favors earlier refreshes
+     */
+    private static final double EARLY_REFRESH_BETA = 1.0;
+
+    private static final long MAX_LOAD_STAMPS = 10_000;
+
+    private final String name;
+    private final com.github.benmanes.caffeine.cache.Cache<String, Object> localCache;
+    private final Cache remoteCache;
+    private final CacheGenerations cacheGenerations;
+    private final CacheInvalidationPublisher invalidationPublisher;
+    private final RedissonClient redissonClient;
+
+    /**
+     * Loads in progress on this node, by L1 key
+     */
+    private final ConcurrentMap<String, CompletableFuture<Object>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * Load time and L2 expiry of the keys this node loaded, for the early refresh
+     */
+    private final com.github.benmanes.caffeine.cache.Cache<String, LoadStamp> loadStamps = Caffeine.newBuilder()
+            .maximumSize(MAX_LOAD_STAMPS)
+            .build();
+
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter remoteHits;
+    private final Counter remoteMisses;
+    private final Timer localLatency;
+    private final Timer remoteLatency;
+    private final Counter localCoalescedWaits;
+    private final Counter remoteCoalescedWaits;
+    private final Counter earlyRefreshes;
+
+    /**
+     * @param loadNanos      Time the load took
+     * @param expiresAtNanos {@link System#nanoTime()} at which the L2 entry expires
+     */
+    private record LoadStamp(long loadNanos, long expiresAtNanos) {
+    }
+
+    /**
+     * @param name                  The cache name
+     * @param localCache            The L1 cache, or null for a cache without near-cache
+     * @param remoteCache           The L2 Redis cache
+     * @param cacheGenerations      Generation counters versioning the Redis key namespace
+     * @param invalidationPublisher Publisher broadcasting invalidations to other nodes
+     * @param redissonClient        Client for the cross-node load locks, or null to coalesce loads per node only
+     * @param meterRegistry         Registry for per-level cache metrics
+     */
+    public TwoLevelCache(String name,
+                         com.github.benmanes.caffeine.cache.Cache<String, Object> localCache,
+                         Cache remoteCache,
+                         CacheGenerations cacheGenerations,
+                         CacheInvalidationPublisher invalidationPublisher,
+                         RedissonClient redissonClient,
+                         MeterRegistry meterRegistry) {
+        this.name = name;
+        this.localCache = localCache;
+        this.remoteCache = remoteCache;
+        this.cacheGenerations = cacheGenerations;
+        this.invalidationPublisher = invalidationPublisher;
+        this.redissonClient = redissonClient;
+
+        this.localHits = requestCounter(meterRegistry, "l1", "hit");
+        this.localMisses = requestCounter(meterRegistry, "l1", "miss");
+        this.remoteHits = requestCounter(meterRegistry, "l2", "hit");
+        this.remoteMisses = requestCounter(meterRegistry, "l2", "miss");
+        this.localLatency = latencyTimer(meterRegistry, "l1");
+        this.remoteLatency = latencyTimer(meterRegistry, "l2");
+        this.localCoalescedWaits = coalescedCounter(meterRegistry, "local");
+        this.remoteCoalescedWaits = coalescedCounter(meterRegistry, "remote");
+        this.earlyRefreshes = Counter.builder("acot.cache.early.refreshes")
+                .description("Keys reloaded ahead of their expiry")
+                .tag("cache", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remoteCache.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = toLocalKey(key);
+        if (localCache != null) {
+            Object localValue = localLatency.record(() -> localCache.getIfPresent(localKey));
+            if (localValue != null) {
+                localHits.increment();
+                return new SimpleValueWrapper(localValue);
+            }
+            localMisses.increment();
+        }
+
+        ValueWrapper remoteValue = timeRemote(() -> remoteCache.get(key));
+        if (remoteValue == null || remoteValue.get() == null) {
+            remoteMisses.increment();
+            return remoteValue;
+        }
+        remoteHits.increment();
+        putLocal(localKey, remoteValue.get());
+        return remoteValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = toLocalKey(key);
+        ValueWrapper wrapper = get(key);
+        Object current = wrapper != null ? wrapper.get() : null;
+        // A cached null is a hit as well, it keeps lookups of missing keys off the loader
+        if (wrapper != null && (current == null || !shouldRefreshEarly(localKey))) {
+            return (T) current;
+        }
+
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> running = loads.putIfAbsent(localKey, load);
+        if (running != null) {
+            if (current != null) {
+                // Already being refreshed, the current value is still valid
+                return (T) current;
+            }
+            localCoalescedWaits.increment();
+            try {
+                return (T) running.get(LOAD_WAIT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new ValueRetrievalException(key, valueLoader, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ValueRetrievalException(key, valueLoader, e);
+            } catch (TimeoutException e) {
+                // The running load is stuck, load apart from it rather than queue behind it
+                log.warn("Load of key {} of cache {} still running after {}, loading again", localKey, name, LOAD_WAIT);
+                try {
+                    return (T) load(key, localKey, valueLoader, null);
+                } catch (Exception loadException) {
+                    throw loadException instanceof ValueRetrievalException retrievalException
+                            ? retrievalException : new ValueRetrievalException(key, valueLoader, loadException);
+                }
+            }
+        }
+
+        try {
+            Object value = load(key, localKey, valueLoader, current);
+            load.complete(value);
+            return (T) value;
+        } catch (Throwable e) {
+            load.completeExceptionally(e);
+            throw e instanceof ValueRetrievalException retrievalException
+                    ? retrievalException : new ValueRetrievalException(key, valueLoader, e);
+        } finally {
+            loads.remove(localKey, load);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        timeRemote(() -> {
+            remoteCache.put(key, value);
+            return null;
+        });
+        loadStamps.invalidate(toLocalKey(key));
+        putLocal(toLocalKey(key), value);
+        // Other nodes may still hold the previous value
+        publishEvict(toLocalKey(key));
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = timeRemote(() -> remoteCache.putIfAbsent(key, value));
+        if (existing == null) {
+            putLocal(toLocalKey(key), value);
+            publishEvict(toLocalKey(key));
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        timeRemote(() -> {
+            remoteCache.evict(key);
+            return null;
+        });
+        loadStamps.invalidate(toLocalKey(key));
+        evictLocal(toLocalKey(key));
+        publishEvict(toLocalKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = timeRemote(() -> remoteCache.evictIfPresent(key));
+        loadStamps.invalidate(toLocalKey(key));
+        evictLocal(toLocalKey(key));
+        publishEvict(toLocalKey(key));
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        // Moving to a new generation empties the cache on all nodes without touching the old keys
+        cacheGenerations.next(name);
+        loadStamps.invalidateAll();
+        clearLocal();
+        invalidationPublisher.publishClear(name);
+    }
+
+    @Override
+    public boolean invalidate() {
+        clear();
+        return true;
+    }
+
+    /**
+     * Drops a key from this node's L1 only, used for invalidations received from other nodes
+     *
+     * @param localKey The string form of the cache key
+     */
+    void evictLocal(String localKey) {
+        // The key was written elsewhere, its expiry is no longer known here
+        loadStamps.invalidate(localKey);
+        if (localCache != null) {
+            localCache.invalidate(localKey);
+        }
+    }
+
+    /**
+     * Drops all entries from this node's L1 only, used for invalidations received from other nodes
+     */
+    void clearLocal() {
+        loadStamps.invalidateAll();
+        if (localCache != null) {
+            localCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Load a key and store it, under the key's cross-node lock if Redisson is available
+     *
+     * @param current The value being refreshed early, or null on a miss
+     * @return The loaded value, or the value another node stored meanwhile
+     */
+    private Object load(Object key, String localKey, Callable<?> valueLoader, Object current) throws Exception {
+        RLock lock = null;
+        if (redissonClient != null) {
+            try {
+                RLock keyLock = redissonClient.getLock(LOCK_KEY_PREFIX + cacheGenerations.keyPrefix(name) + localKey);
+                // An early refresh does not wait: another node holding the lock is refreshing the key already
+                long waitMillis = current != null ? 0 : LOCK_WAIT.toMillis();
+                if (keyLock.tryLock(waitMillis, LOCK_LEASE.toMillis(), TimeUnit.MILLISECONDS)) {
+                    lock = keyLock;
+                } else if (current != null) {
+                    return current;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (RuntimeException e) {
+                log.warn("Failed to lock key {} of cache {}, loading without lock: {}", localKey, name, e.getMessage());
+            }
+        }
+
+        try {
+            if (current == null && redissonClient != null) {
+                // Loaded by another node while this one waited for the lock
+                ValueWrapper remoteValue = timeRemote(() -> remoteCache.get(key));
+                if (remoteValue != null) {
+                    remoteCoalescedWaits.increment();
+                    if (remoteValue.get() != null) {
+                        putLocal(localKey, remoteValue.get());
+                    }
+                    return remoteValue.get();
+                }
+            }
+
+            long start = System.nanoTime();
+            Object value = valueLoader.call();
+            long loadNanos = System.nanoTime() - start;
+            // Null results are not cached, the remote cache rejects them
+            if (value != null) {
+                put(key, value);
+                stampLoad(key, localKey, value, loadNanos);
+                if (current != null) {
+                    earlyRefreshes.increment();
+                }
+            }
+            return value;
+        } finally {
+            if (lock != null) {
+                unlock(lock, localKey);
+            }
+        }
+    }
+
+    /**
+     * XFetch: refresh when now - loadTime * beta * ln(random) reaches the expiry. The random term is
+     * exponentially distributed, a refresh is unlikely long before the expiry and almost certain right before it.
+     */
+    private boolean shouldRefreshEarly(String localKey) {
+        LoadStamp stamp = loadStamps.getIfPresent(localKey);
+        if (stamp == null) {
+            return false;
+        }
+        double gapNanos = -stamp.loadNanos() * EARLY_REFRESH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.nanoTime() + gapNanos >= stamp.expiresAtNanos();
+    }
+
+    private void stampLoad(Object key, String localKey, Object value, long loadNanos) {
+        if (!(remoteCache instanceof RedisCache redisCache)) {
+            return;
+        }
+        Duration ttl = redisCache.getCacheConfiguration().getTtlFunction().getTimeToLive(key, value);
+        if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+            return;
+        }
+        loadStamps.put(localKey, new LoadStamp(loadNanos, System.nanoTime() + ttl.toNanos()));
+    }
+
+    private void unlock(RLock lock, String localKey) {
+        try {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            // Released by its lease
+            log.warn("Failed to unlock key {} of cache {}: {}", localKey, name, e.getMessage());
+        }
+    }
+
+    private void putLocal(String localKey, Object value) {
+        if (localCache != null && value != null) {
+            localCache.put(localKey, value);
+        }
+    }
+
+    private void publishEvict(String localKey) {
+        // Without L1 there is nothing for other nodes to drop
+        if (localCache != null) {
+            invalidationPublisher.publishEvict(name, localKey);
+        }
+    }
+
+    private <T> T timeRemote(Supplier<T> operation) {
+        return remoteLatency.record(operation);
+    }
+
+    private static String toLocalKey(Object key) {
+        return String.valueOf(key);
+    }
+
+    private Counter requestCounter(MeterRegistry meterRegistry, String level, String result) {
+        return Counter.builder("acot.cache.requests")
+                .description("Cache lookups per cache level")
+                .tag("cache", name)
+                .tag("level", level)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter coalescedCounter(MeterRegistry meterRegistry, String scope) {
+        return Counter.builder("acot.cache.coalesced.waits")
+                .description("Cache misses served by a load of the same key made by another request")
+                .tag("cache", name)
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    private Timer latencyTimer(MeterRegistry meterRegistry, String level) {
+        return Timer.builder("acot.cache.latency")
+                .description("Latency of cache operations per cache level")
+                .tag("cache", name)
+                .tag("level", level)
+                .register(meterRegistry);
+    }
+}
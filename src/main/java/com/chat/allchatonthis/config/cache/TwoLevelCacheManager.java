@@ -0,0 +1,116 @@
+package com.chat.allchatonthis.config.cache;
+
+import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.cache.Cache;
+import org.springframework.cache.transaction.AbstractTransactionSupportingCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache manager that puts a Caffeine near-cache in front of the caches of a {@link RedisCacheManager}
+ * <p>
+ * Only caches with an L1 specification get a near-cache, the others are served by Redis directly.
+ * Also listens for invalidations broadcast by other nodes and applies them to the local L1 and
+ * to the locally known cache generation.
+ */
+@Slf4j
+public class TwoLevelCacheManager extends AbstractTransactionSupportingCacheManager implements MessageListener {
+
+    private final RedisCacheManager redisCacheManager;
+    private final Map<String, Caffeine<Object, Object>> localCacheSpecs;
+    private final CacheGenerations cacheGenerations;
+    private final CacheInvalidationPublisher invalidationPublisher;
+    private final RedissonClient redissonClient;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param redisCacheManager     The L2 cache manager, must not be transaction aware itself
+     * @param localCacheSpecs       L1 size and TTL settings by cache name
+     * @param cacheGenerations      Generation counters versioning the Redis key namespace
+     * @param invalidationPublisher Publisher broadcasting invalidations to other nodes
+     * @param redissonClient        Client for the cross-node load locks, or null to coalesce loads per node only
+     * @param meterRegistry         Registry for per-level cache metrics
+     */
+    public TwoLevelCacheManager(RedisCacheManager redisCacheManager,
+                                Map<String, Caffeine<Object, Object>> localCacheSpecs,
+                                CacheGenerations cacheGenerations,
+                                CacheInvalidationPublisher invalidationPublisher,
+                                RedissonClient redissonClient,
+                                MeterRegistry meterRegistry) {
+        this.redisCacheManager = redisCacheManager;
+        this.localCacheSpecs = localCacheSpecs;
+        this.cacheGenerations = cacheGenerations;
+        this.invalidationPublisher = invalidationPublisher;
+        this.redissonClient = redissonClient;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected Collection<? extends Cache> loadCaches() {
+        List<Cache> caches = new ArrayList<>();
+        for (String cacheName : redisCacheManager.getCacheNames()) {
+            caches.add(createCache(cacheName, redisCacheManager.getCache(cacheName)));
+        }
+        return caches;
+    }
+
+    @Override
+    protected Cache getMissingCache(String name) {
+        Cache remoteCache = redisCacheManager.getCache(name);
+        return remoteCache != null ? createCache(name, remoteCache) : null;
+    }
+
+    private Cache createCache(String name, Cache remoteCache) {
+        Caffeine<Object, Object> spec = localCacheSpecs.get(name);
+        return new TwoLevelCache(name, spec != null ? spec.build() : null, remoteCache,
+                cacheGenerations, invalidationPublisher, redissonClient, meterRegistry);
+    }
+
+    /**
+     * Applies an invalidation received from another node to the local L1
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        CacheInvalidationPublisher.CacheInvalidationMessage invalidation = JsonUtils.parseObject(
+                new String(message.getBody(), StandardCharsets.UTF_8), CacheInvalidationPublisher.CacheInvalidationMessage.class);
+        if (invalidation == null || invalidationPublisher.getNodeId().equals(invalidation.getNodeId())) {
+            return;
+        }
+
+        if (invalidation.getKey() == null) {
+            // The cache was cleared, pick up its new generation
+            cacheGenerations.refresh(invalidation.getCacheName());
+        }
+
+        TwoLevelCache cache = findTwoLevelCache(invalidation.getCacheName());
+        if (cache == null) {
+            return;
+        }
+        if (invalidation.getKey() == null) {
+            cache.clearLocal();
+        } else {
+            cache.evictLocal(invalidation.getKey());
+        }
+        log.debug("Applied remote invalidation for cache {} key {}", invalidation.getCacheName(), invalidation.getKey());
+    }
+
+    private TwoLevelCache findTwoLevelCache(String name) {
+        Cache cache = lookupCache(name);
+        if (cache instanceof TransactionAwareCacheDecorator decorator) {
+            cache = decorator.getTargetCache();
+        }
+        return cache instanceof TwoLevelCache twoLevelCache ? twoLevelCache : null;
+    }
+}
@@ -0,0 +1,188 @@
+package com.chat.allchatonthis.config.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Value serializer of one Redis cache, writing JSON or Smile and reading both
+ * <p>
+ * Smile values start with a two-byte header: {@link #MAGIC}, then the encoding version:
+ * - 1: Smile
+ * - 2: Smile, Deflate compressed, used from the configured size on
+ * <p>
+ * JSON values are written without header, exactly as before, so nodes that only know JSON keep reading them.
+ * The magic byte is never the first byte of UTF-8 JSON, which tells the two apart. A value of an unknown
+ * version, written by a newer node, is read as a miss and overwritten.
+ * <p>
+ * Meters, tagged with the cache name and the encoding:
+ * - acot.cache.value.size: bytes per value written
+ * - acot.cache.serialization: time to write or read a value, also tagged with the operation
+ */
+@Slf4j
+public class VersionedCacheSerializer implements RedisSerializer<Object> {
+
+    /**
+     * A UTF-8 continuation byte, never the start of a JSON document
+     */
+    static final byte MAGIC = (byte) 0xAC;
+
+    static final byte VERSION_SMILE = 1;
+    static final byte VERSION_SMILE_DEFLATE = 2;
+
+    private static final int HEADER_LENGTH = 2;
+
+    private static final String JSON = "json";
+    private static final String SMILE = "smile";
+    private static final String SMILE_DEFLATE = "smile_deflate";
+
+    private final String cacheName;
+    private final CacheSerializationProperties.Format format;
+    private final RedisSerializer<Object> jsonSerializer;
+    private final ObjectMapper smileMapper;
+    private final int compressionThreshold;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param cacheName            The cache name, tagging the meters
+     * @param format               The format values are written in
+     * @param jsonSerializer       The JSON serializer, reading values without header
+     * @param smileMapper          The mapper reading and writing Smile
+     * @param compressionThreshold Size from which Smile values are compressed, 0 or less to never compress
+     * @param meterRegistry        Registry for the size and timing meters
+     */
+    public VersionedCacheSerializer(String cacheName,
+                                    CacheSerializationProperties.Format format,
+                                    RedisSerializer<Object> jsonSerializer,
+                                    ObjectMapper smileMapper,
+                                    int compressionThreshold,
+                                    MeterRegistry meterRegistry) {
+        this.cacheName = cacheName;
+        this.format = format;
+        this.jsonSerializer = jsonSerializer;
+        this.smileMapper = smileMapper;
+        this.compressionThreshold = compressionThreshold;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+
+        long start = System.nanoTime();
+        byte[] bytes;
+        String encoding;
+        if (format == CacheSerializationProperties.Format.JSON) {
+            bytes = jsonSerializer.serialize(value);
+            encoding = JSON;
+        } else {
+            bytes = writeSmile(value);
+            encoding = bytes[1] == VERSION_SMILE_DEFLATE ? SMILE_DEFLATE : SMILE;
+        }
+        timer("serialize", encoding).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        sizeSummary(encoding).record(bytes != null ? bytes.length : 0);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        if (bytes[0] != MAGIC) {
+            Object value = jsonSerializer.deserialize(bytes);
+            timer("deserialize", JSON).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return value;
+        }
+        if (bytes.length < HEADER_LENGTH) {
+            throw new SerializationException("Truncated cache value header");
+        }
+
+        String encoding;
+        InputStream in = new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        switch (bytes[1]) {
+            case VERSION_SMILE -> encoding = SMILE;
+            case VERSION_SMILE_DEFLATE -> {
+                encoding = SMILE_DEFLATE;
+                in = new InflaterInputStream(in);
+            }
+            default -> {
+                log.warn("Ignoring value of unknown encoding version {} in cache {}", bytes[1], cacheName);
+                return null;
+            }
+        }
+        try (InputStream input = in) {
+            Object value = smileMapper.readValue(input, Object.class);
+            timer("deserialize", encoding).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return value;
+        } catch (IOException e) {
+            throw new SerializationException("Could not read Smile cache value: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] writeSmile(Object value) {
+        try {
+            byte[] smile = smileMapper.writeValueAsBytes(value);
+            if (compressionThreshold <= 0 || smile.length < compressionThreshold) {
+                return withHeader(VERSION_SMILE, smile);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(smile.length / 2);
+            out.write(MAGIC);
+            out.write(VERSION_SMILE_DEFLATE);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+                deflate.write(smile);
+            } finally {
+                deflater.end();
+            }
+            // Incompressible values are kept as they are
+            return out.size() < smile.length + HEADER_LENGTH ? out.toByteArray() : withHeader(VERSION_SMILE, smile);
+        } catch (IOException e) {
+            throw new SerializationException("Could not write Smile cache value: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] withHeader(byte version, byte[] payload) {
+        byte[] bytes = new byte[payload.length + HEADER_LENGTH];
+        bytes[0] = MAGIC;
+        bytes[1] = version;
+        System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+        return bytes;
+    }
+
+    private Timer timer(String operation, String encoding) {
+        return Timer.builder("acot.cache.serialization")
+                .description("Time to encode or decode a Redis cache value")
+                .tag("cache", cacheName)
+                .tag("operation", operation)
+                .tag("encoding", encoding)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary sizeSummary(String encoding) {
+        return DistributionSummary.builder("acot.cache.value.size")
+                .description("Size of the values written to a Redis cache")
+                .baseUnit("bytes")
+                .tag("cache", cacheName)
+                .tag("encoding", encoding)
+                .register(meterRegistry);
+    }
+}
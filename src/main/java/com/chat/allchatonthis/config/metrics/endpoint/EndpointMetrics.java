@@ -1,23 +1,25 @@
 package com.chat.allchatonthis.config.metrics.endpoint;
 
 import io.micrometer.core.instrument.Counter;
-import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Metrics service for tracking API endpoint calls and user activity.
+ * Metrics service for tracking API endpoint calls.
  * <p>
  * Core responsibilities:
- * - Register and manage Micrometer metrics (Counters for endpoint calls, Gauge for online users)
+ * - Register and manage Micrometer metrics (Counters and latency Timers for endpoint calls)
  * - Thread-safe tracking of endpoint call counts using ConcurrentHashMap
- * - Atomic operations for online user count to ensure thread safety
+ * <p>
+ * Online and active users are tracked cluster-wide by UserActivityTracker.
  */
 @Component
 public class EndpointMetrics {
@@ -30,39 +32,27 @@ public class EndpointMetrics {
     // Value: Micrometer Counter instance for that endpoint
     private final Map<String, Counter> endpointCounters = new ConcurrentHashMap<>();
 
-    // Atomic integer to track online users (ensures thread-safe increment/decrement operations)
-    private final AtomicInteger onlineUsers = new AtomicInteger(0);
-
     /**
-     * Constructor: Initializes the metrics registry and registers the online users Gauge.
+     * Constructor: Initializes the metrics registry.
      *
      * @param meterRegistry Micrometer's meter registry for metric management
      */
     public EndpointMetrics(MeterRegistry meterRegistry) {
         this.meterRegistry = meterRegistry;
-
-        // Register Gauge metric for online users:
-        // - Gauge is used to track instantaneous values (current online count)
-        // - "acot.online.users" is the metric name (prefix "acot" for "All Chat On This")
-        // - onlineUsers::get provides the current value via method reference
-        Gauge.builder("acot.online.users", onlineUsers::get)
-                .description("Number of currently online users")
-                .register(meterRegistry);
     }
 
     /**
-     * Increment call count for a specific endpoint.
+     * Create the meters of a specific endpoint.
      *
      * @param controllerName The name of the controller (e.g., "UserController")
      * @param methodName     The name of the method (e.g., "getUser")
-     *                       <p>
-     *                       Implementation notes:
-     *                       - Uses ConcurrentHashMap.computeIfAbsent() to ensure thread-safe, lazy initialization of Counters:
-     *                       - If the endpoint already exists in the map, returns the existing Counter
-     *                       - If not, creates a new Counter with controller/method tags and registers it to the registry
-     *                       - "k" in the lambda represents the endpoint key (same as the input "endpoint" variable)
+     * @return The endpoint's meters, to be resolved once per method and kept by the caller
+     * <p>
+     * Implementation notes:
+     * - The call Counter is still cached by "ControllerName.MethodName", so the same endpoint always shares one Counter
+     * - Timers are created per outcome on first use and cached inside the returned EndpointMeters
      */
-    public void incrementEndpointCount(String controllerName, String methodName) {
+    public EndpointMeters createEndpointMeters(String controllerName, String methodName) {
         String endpoint = controllerName + "." + methodName;
         // computeIfAbsent: Atomically checks if the endpoint exists in the map.
         // - If absent: creates a new Counter with tags for controller/method, then caches it
@@ -79,29 +69,66 @@ public class EndpointMetrics {
                         .description("Number of calls to endpoint")
                         .register(meterRegistry));  // Register the Counter to Micrometer
 
-        counter.increment();  // Increment the Counter for this endpoint call
+        return new EndpointMeters(controllerName, methodName, counter);
     }
 
     /**
-     * Increment the number of online users (called on user login).
+     * Meters of a single endpoint: its call Counter and one latency Timer per outcome.
      * <p>
-     * - Called from UserActivityMetricsConfig to centralize login tracking
-     * - Uses AtomicInteger.incrementAndGet() for thread-safe increment
+     * - Outcome is "success", or the error code of the CommonResult / ServiceException (bounded by ErrorCodeConstants)
+     * - Recording on a resolved instance builds no strings, only a first-seen error code registers a new Timer
      */
-    public void userLoggedIn() {
-        onlineUsers.incrementAndGet();
-    }
+    public class EndpointMeters {
 
-    /**
-     * Decrement the number of online users (called on user logout or session timeout).
-     * <p>
-     * - Called from:
-     * - UserActivityMetricsConfig (for explicit logouts)
-     * - SessionEventListener (for session timeouts)
-     * - Uses AtomicInteger.updateAndGet() to ensure non-negative count
-     */
-    public void userLoggedOut() {
-        // Update the value to max(0, current - 1) to prevent negative online user count
-        onlineUsers.updateAndGet(current -> Math.max(0, current - 1));
+        private final String controllerName;
+        private final String methodName;
+        private final Counter counter;
+        // The success Timer is the common case, kept in a field to skip the map lookup
+        private final Timer successTimer;
+        // Error Timers, keyed by error code
+        private final Map<Integer, Timer> errorTimers = new ConcurrentHashMap<>();
+
+        private EndpointMeters(String controllerName, String methodName, Counter counter) {
+            this.controllerName = controllerName;
+            this.methodName = methodName;
+            this.counter = counter;
+            this.successTimer = latencyTimer("success");
+        }
+
+        /**
+         * Count a call to the endpoint (called before the endpoint runs, so in-flight calls are counted too)
+         */
+        public void increment() {
+            counter.increment();
+        }
+
+        /**
+         * Record the latency of a completed call.
+         *
+         * @param nanos     Duration of the call in nanoseconds
+         * @param errorCode Error code of the call, or null if it succeeded
+         */
+        public void record(long nanos, Integer errorCode) {
+            Timer timer = errorCode == null ? successTimer
+                    : errorTimers.computeIfAbsent(errorCode, code -> latencyTimer(String.valueOf(code)));
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private Timer latencyTimer(String outcome) {
+            return Timer.builder("acot.endpoint.latency")
+                    .tags(Arrays.asList(
+                            Tag.of("controller", controllerName),
+                            Tag.of("method", methodName),
+                            Tag.of("outcome", outcome)))
+                    .description("Latency of endpoint calls")
+                    // Client-side percentiles, read back by MetricsController
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    // Histogram buckets so Prometheus can aggregate percentiles across nodes
+                    .publishPercentileHistogram()
+                    // SLO buckets: the thresholds the latency dashboards are drawn against
+                    .serviceLevelObjectives(
+                            Duration.ofMillis(100), Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofSeconds(5))
+                    .register(meterRegistry);
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,17 +2,24 @@ package com.chat.allchatonthis.config.metrics.endpoint;  // Package declaration
 
 // Lombok annotation: Generates constructor with required arguments (final fields)
 
+import com.chat.allchatonthis.common.exception.ServiceException;
+import com.chat.allchatonthis.common.pojo.CommonResult;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.annotation.Before;
 import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.chat.allchatonthis.common.exception.enums.GlobalErrorCodeConstants.INTERNAL_SERVER_ERROR;
 
 /**
  * AOP aspect to intercept REST controller method calls and track endpoint metrics.
@@ -20,7 +27,7 @@ import java.lang.reflect.Method;
  * Core responsibilities:
  * - Identify REST controller methods using AOP pointcuts
  * - Validate if methods are actual HTTP endpoints (not internal helper methods)
- * - Trigger metric collection via EndpointMetrics for valid API calls
+ * - Trigger metric collection via EndpointMetrics for valid API calls (call count and latency per outcome)
  */
 @Aspect  // Marks this class as an AOP aspect
 @Component  // Registers as a Spring-managed component
@@ -31,6 +38,10 @@ public class EndpointMetricsAspect {
     // Dependency injection: Metrics service to record endpoint calls
     private final EndpointMetrics endpointMetrics;
 
+    // Meters resolved once per controller Method, so the hot path builds no "controller.method" strings
+    // Value: the endpoint's meters, or empty for methods that are not HTTP endpoints
+    private final Map<Method, Optional<EndpointMetrics.EndpointMeters>> endpointMeters = new ConcurrentHashMap<>();
+
     /**
      * Pointcut definition: Matches all classes annotated with @RestController.
      * <p>
@@ -44,36 +55,67 @@ public class EndpointMetricsAspect {
     }
 
     /**
-     * Before advice: Executes before methods matching 'controllerPointcut()'.
+     * Around advice: Executes around methods matching 'controllerPointcut()'.
      * <p>
-     * Purpose: Collect metrics for API calls before the actual business logic runs.
+     * Purpose: Count API calls before the business logic runs and time them once it completes.
      *
      * @param joinPoint Context object providing details about the intercepted method call
+     * @return The result of the controller method
      */
-    @Before("controllerPointcut()")  // Applies this advice to the defined pointcut
-    public void beforeControllerMethod(JoinPoint joinPoint) {
-        try {
-            // 1. Extract method signature from the join point
-            MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-            // 2. Get the actual Method object being called
-            Method method = signature.getMethod();
-            // 3. Get the declaring class (controller class) of the method
-            Class<?> controllerClass = method.getDeclaringClass();
-            // 4. Extract simple class name (e.g., "UserController")
-            String controllerName = controllerClass.getSimpleName();
-            // 5. Extract method name (e.g., "getUser")
-            String methodName = method.getName();
+    @Around("controllerPointcut()")  // Applies this advice to the defined pointcut
+    public Object aroundControllerMethod(ProceedingJoinPoint joinPoint) throws Throwable {
+        // 1. Resolve the endpoint's meters (cached per Method, null for helper methods)
+        EndpointMetrics.EndpointMeters meters = resolveMeters(joinPoint);
+        if (meters == null) {
+            return joinPoint.proceed();
+        }
 
-            // 6. Validate if the method is an actual HTTP endpoint (not a helper method)
-            if (isHttpEndpoint(method)) {
-                // 7. Record the endpoint call via EndpointMetrics
-                endpointMetrics.incrementEndpointCount(controllerName, methodName);
-                // 8. Log debug information for monitoring
-                log.debug("Endpoint called: {}.{}", controllerName, methodName);
+        // 2. Record the endpoint call via EndpointMetrics
+        meters.increment();
+        long start = System.nanoTime();
+        Integer errorCode = null;
+        try {
+            Object result = joinPoint.proceed();
+            // 3. A CommonResult carries the outcome of the call
+            if (result instanceof CommonResult<?> commonResult && commonResult.isError()) {
+                errorCode = commonResult.getCode();
             }
+            return result;
+        } catch (ServiceException e) {
+            errorCode = e.getCode() != null ? e.getCode() : INTERNAL_SERVER_ERROR.getCode();
+            throw e;
+        } catch (Throwable e) {
+            errorCode = INTERNAL_SERVER_ERROR.getCode();
+            throw e;
+        } finally {
+            // 4. Record the latency under its outcome
+            meters.record(System.nanoTime() - start, errorCode);
+        }
+    }
+
+    /**
+     * Resolves the meters of the intercepted method, computing them only on its first call.
+     *
+     * @param joinPoint Context object providing details about the intercepted method call
+     * @return The endpoint's meters, or null if the method is not an HTTP endpoint
+     */
+    private EndpointMetrics.EndpointMeters resolveMeters(ProceedingJoinPoint joinPoint) {
+        try {
+            // Extract the actual Method object being called from the method signature
+            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+            return endpointMeters.computeIfAbsent(method, m -> {
+                // Validate if the method is an actual HTTP endpoint (not a helper method)
+                if (!isHttpEndpoint(m)) {
+                    return Optional.empty();
+                }
+                // Simple class name (e.g., "UserController") and method name (e.g., "getUser")
+                log.debug("Endpoint registered: {}.{}", m.getDeclaringClass().getSimpleName(), m.getName());
+                return Optional.of(endpointMetrics.createEndpointMeters(m.getDeclaringClass().getSimpleName(), m.getName()));
+            }).orElse(null);
         } catch (Exception e) {
-            // 9. Handle exceptions gracefully (metrics failure shouldn't break business logic)
-            log.error("Error recording endpoint metrics", e);
+            // Handle exceptions gracefully (metrics failure shouldn't break business logic)
+            log.error("Error resolving endpoint metrics", e);
+            return null;
         }
     }
 
@@ -1,8 +1,5 @@
 package com.chat.allchatonthis.config.metrics.online;  // Package declaration for online user metrics configuration
 
-// Dependency: Metrics service to update online user count
-
-import com.chat.allchatonthis.config.metrics.endpoint.EndpointMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
@@ -15,21 +12,20 @@ import org.springframework.security.web.authentication.AuthenticationSuccessHand
 import org.springframework.security.web.authentication.logout.LogoutSuccessHandler;
 
 /**
- * Centralized configuration for tracking user login/logout activity metrics.
+ * Centralized configuration for logging user login/logout activity.
  * <p>
  * Core responsibilities:
  * - Listen to Spring Security authentication events (login/logout)
- * - Avoid redundant metrics collection by consolidating tracking logic
- * - Provide custom handlers for form-based login/logout (without duplicate metrics)
+ * - Provide custom handlers for form-based login/logout
+ * <p>
+ * Login and logout events no longer drive the online user count: with stateless JWTs most users never log out,
+ * so the count drifted. Online users are counted from authenticated requests by UserActivityTracker.
  */
 @Configuration  // Marks this class as a Spring configuration class
-@RequiredArgsConstructor  // Lombok: Generates constructor with 'endpointMetrics' parameter
+@RequiredArgsConstructor  // Lombok: Generates constructor for final fields
 @Slf4j  // Lombok: Generates 'log' field for logging
 public class UserActivityMetricsConfig {
 
-    // Dependency injection: Metrics service to update online user count
-    private final EndpointMetrics endpointMetrics;
-
     /**
      * Event listener for successful user authentication (login).
      * <p>
@@ -45,8 +41,6 @@ public class UserActivityMetricsConfig {
         String username = authentication.getName();
         // Log the login event for auditing
         log.debug("User logged in: {}", username);
-        // Increment online user count via metrics service
-        endpointMetrics.userLoggedIn();
     }
 
     /**
@@ -66,14 +60,12 @@ public class UserActivityMetricsConfig {
             // Log the logout event for auditing
             log.debug("User logged out: {}", username);
         }
-        // Decrement online user count via metrics service
-        endpointMetrics.userLoggedOut();
     }
 
     /**
      * Custom authentication success handler for form-based logins.
      * <p>
-     * Purpose: Provide logging without duplicating metrics (already handled by event listener).
+     * Purpose: Provide logging for form-based logins.
      *
      * @return A custom AuthenticationSuccessHandler instance
      */
@@ -84,14 +76,13 @@ public class UserActivityMetricsConfig {
             String username = authentication.getName();
             // Log the form-based login for debugging
             log.debug("User authenticated via form login: {}", username);
-            // No metrics tracking here (already handled by handleAuthenticationSuccess)
         };
     }
 
     /**
      * Custom logout success handler for form-based logouts.
      * <p>
-     * Purpose: Provide logging without duplicating metrics (already handled by event listener).
+     * Purpose: Provide logging for form-based logouts.
      *
      * @return A custom LogoutSuccessHandler instance
      */
@@ -104,7 +95,6 @@ public class UserActivityMetricsConfig {
                 // Log the form-based logout for debugging
                 log.debug("User logged out via form logout: {}", username);
             }
-            // No metrics tracking here (already handled by handleLogout)
         };
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package com.chat.allchatonthis.config.metrics.online;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cluster-wide tracking of active users with Redis HyperLogLogs
+ * <p>
+ * Every authenticated request records its user, and the users seen on this node are added every few seconds to
+ * time-bucketed HyperLogLogs shared by all nodes:
+ * - one per minute, the online users being the union of the last 5 minutes
+ * - one per day (UTC), the daily active users
+ * - one per month (UTC), the monthly active users
+ * <p>
+ * A HyperLogLog takes at most 12 KB whatever the number of users, with a standard error of 0.81%. The counts
+ * are read back after each flush and exposed as gauges, so scraping them makes no call to Redis.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserActivityTracker {
+
+    private static final String KEY_PREFIX = "acot_active_users:";
+    private static final String MINUTE_KEY_PREFIX = KEY_PREFIX + "minute:";
+    private static final String DAY_KEY_PREFIX = KEY_PREFIX + "day:";
+    private static final String MONTH_KEY_PREFIX = KEY_PREFIX + "month:";
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * Window a user counts as online after their last request
+     */
+    private static final int ONLINE_WINDOW_MINUTES = 5;
+
+    /**
+     * Buckets outlive their window so late flushes and reads from lagging clocks still find them
+     */
+    private static final Duration MINUTE_TTL = Duration.ofMinutes(ONLINE_WINDOW_MINUTES * 2);
+    private static final Duration DAY_TTL = Duration.ofDays(2);
+    private static final Duration MONTH_TTL = Duration.ofDays(62);
+
+    private static final long FLUSH_INTERVAL_MILLIS = 5_000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Users seen since the last flush, a user making many requests is added once
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private volatile long onlineUsers;
+    private volatile long dailyActiveUsers;
+    private volatile long monthlyActiveUsers;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("acot.online.users", () -> onlineUsers)
+                .description("Number of users active in the last " + ONLINE_WINDOW_MINUTES + " minutes, across all nodes")
+                .register(meterRegistry);
+        Gauge.builder("acot.active.users", () -> dailyActiveUsers)
+                .description("Number of distinct active users in the period, across all nodes")
+                .tag("period", "day")
+                .register(meterRegistry);
+        Gauge.builder("acot.active.users", () -> monthlyActiveUsers)
+                .description("Number of distinct active users in the period, across all nodes")
+                .tag("period", "month")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record a request of an authenticated user, only kept in memory until the next flush
+     *
+     * @param userId The user ID
+     */
+    public void recordActivity(Long userId) {
+        if (userId != null) {
+            pending.add(userId.toString());
+        }
+    }
+
+    /**
+     * Add the users seen since the last flush to the HyperLogLogs, then refresh the counts
+     */
+    @Scheduled(initialDelay = FLUSH_INTERVAL_MILLIS, fixedDelay = FLUSH_INTERVAL_MILLIS)
+    public void flush() {
+        // Drained element by element rather than swapped: a user added while draining stays for the next flush
+        // instead of landing in a set that was already read
+        List<String> users = new ArrayList<>();
+        for (Iterator<String> it = pending.iterator(); it.hasNext(); ) {
+            users.add(it.next());
+            it.remove();
+        }
+
+        Instant now = Instant.now();
+        if (!users.isEmpty()) {
+            try {
+                String[] values = users.toArray(new String[0]);
+                add(minuteKey(now), values, MINUTE_TTL);
+                add(dayKey(now), values, DAY_TTL);
+                add(monthKey(now), values, MONTH_TTL);
+            } catch (Exception e) {
+                // Kept for the next flush, a user counts the same whenever they are added
+                pending.addAll(users);
+                log.error("Failed to record {} active users: {}", users.size(), e.getMessage());
+                return;
+            }
+        }
+        refreshCounts(now);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * @return The number of users active in the last 5 minutes, as of the last flush
+     */
+    public long getOnlineUsers() {
+        return onlineUsers;
+    }
+
+    /**
+     * @return The number of distinct users active today (UTC), as of the last flush
+     */
+    public long getDailyActiveUsers() {
+        return dailyActiveUsers;
+    }
+
+    /**
+     * @return The number of distinct users active this month (UTC), as of the last flush
+     */
+    public long getMonthlyActiveUsers() {
+        return monthlyActiveUsers;
+    }
+
+    private void refreshCounts(Instant now) {
+        try {
+            // PFCOUNT over several keys counts their union, a user active in several minutes counts once
+            List<String> window = new ArrayList<>(ONLINE_WINDOW_MINUTES);
+            for (int i = 0; i < ONLINE_WINDOW_MINUTES; i++) {
+                window.add(minuteKey(now.minus(Duration.ofMinutes(i))));
+            }
+            onlineUsers = count(window.toArray(new String[0]));
+            dailyActiveUsers = count(dayKey(now));
+            monthlyActiveUsers = count(monthKey(now));
+        } catch (Exception e) {
+            log.error("Failed to read active user counts, keeping the previous ones: {}", e.getMessage());
+        }
+    }
+
+    private void add(String key, String[] values, Duration ttl) {
+        stringRedisTemplate.opsForHyperLogLog().add(key, values);
+        stringRedisTemplate.expire(key, ttl);
+    }
+
+    private long count(String... keys) {
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys);
+        return count != null ? count : 0L;
+    }
+
+    private static String minuteKey(Instant instant) {
+        return MINUTE_KEY_PREFIX + instant.getEpochSecond() / 60;
+    }
+
+    private static String dayKey(Instant instant) {
+        return DAY_KEY_PREFIX + LocalDate.ofInstant(instant, ZoneOffset.UTC).format(DAY_FORMAT);
+    }
+
+    private static String monthKey(Instant instant) {
+        return MONTH_KEY_PREFIX + YearMonth.from(instant.atZone(ZoneOffset.UTC)).format(MONTH_FORMAT);
+    }
+}
@@ -0,0 +1,85 @@
+package com.chat.allchatonthis.config.metrics.thread;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Reports virtual threads pinned to their carrier thread.
+ * <p>
+ * A virtual thread that blocks inside a synchronized block or a native frame cannot unmount and keeps
+ * its carrier busy. A few long pins (e.g. synchronized code in JDBC drivers or pools) are enough to
+ * starve the small carrier pool, so pins are streamed from JFR into metrics and logged with the frame
+ * that caused them.
+ * <p>
+ * Only active when spring.threads.virtual.enabled is true.
+ */
+@Slf4j
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    // Pins shorter than this are normal (e.g. brief monitor enter) and not worth recording
+    private static final Duration PINNED_THRESHOLD = Duration.ofMillis(20);
+
+    private final Timer pinnedTimer;
+
+    private RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry) {
+        // Count and total duration of pins above the threshold
+        this.pinnedTimer = Timer.builder("acot.virtual.thread.pinned")
+                .description("Virtual threads pinned to their carrier thread longer than " + PINNED_THRESHOLD.toMillis() + "ms")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(PINNED_THRESHOLD).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+        log.info("Virtual thread pinning monitor started, threshold {}ms", PINNED_THRESHOLD.toMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordingStream != null) {
+            recordingStream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedTimer.record(event.getDuration());
+        log.warn("Virtual thread pinned for {}ms at {}", event.getDuration().toMillis(), topFrame(event.getStackTrace()));
+    }
+
+    /**
+     * Returns the innermost frame outside the JDK, which is usually the code holding the monitor
+     */
+    private static String topFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String className = frame.getMethod().getType().getName();
+            if (!className.startsWith("java.") && !className.startsWith("jdk.") && !className.startsWith("sun.")) {
+                return className + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+}
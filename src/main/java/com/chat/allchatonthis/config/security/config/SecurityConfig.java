@@ -3,6 +3,7 @@ package com.chat.allchatonthis.config.security.config;
 import com.chat.allchatonthis.config.security.constants.SecurityConstants;
 import com.chat.allchatonthis.config.security.filter.JwtAuthenticationFilter;
 import com.chat.allchatonthis.config.security.service.UserDetailsServiceImpl;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -58,6 +59,8 @@ public class SecurityConfig {
             .csrf(AbstractHttpConfigurer::disable)
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> {
+                // Streamed responses (SSE) complete through an async dispatch of an already authorized request
+                auth.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll();
                 // Permit all public endpoints
                 SecurityConstants.PUBLIC_PATH_PATTERNS.forEach(
                     pattern -> auth.requestMatchers(pattern).permitAll()
@@ -1,8 +1,11 @@
 package com.chat.allchatonthis.config.security.filter;
 
 import com.chat.allchatonthis.common.util.token.JwtUtils;
+import com.chat.allchatonthis.config.metrics.online.UserActivityTracker;
 import com.chat.allchatonthis.config.security.constants.SecurityConstants;
+import com.chat.allchatonthis.config.security.service.TokenRevocationService;
 import com.chat.allchatonthis.config.security.service.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -29,6 +32,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtUtils jwtUtils;
     private final UserDetailsServiceImpl userDetailsService;
+    private final TokenRevocationService tokenRevocationService;
+    private final UserActivityTracker userActivityTracker;
     private final AntPathMatcher pathMatcher = new AntPathMatcher();
 
     @Override
@@ -37,15 +42,15 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         try {
             String jwt = parseJwt(request);
             if (jwt != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                String username = jwtUtils.extractUsername(jwt);
-                if (username != null) {
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                    if (jwtUtils.validateToken(jwt, userDetails)) {
-                        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                                userDetails, null, userDetails.getAuthorities());
-                        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
-                    }
+                // One parse verifies the signature and expiry, an invalid token throws
+                Claims claims = jwtUtils.parseClaims(jwt);
+                if (claims.getSubject() != null && !tokenRevocationService.isRevoked(claims)) {
+                    UserDetails userDetails = userDetailsService.loadUserByClaims(claims);
+                    UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                            userDetails, null, userDetails.getAuthorities());
+                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                    userActivityTracker.recordActivity(claims.get("userId", Long.class));
                 }
             }
         } catch (Exception e) {
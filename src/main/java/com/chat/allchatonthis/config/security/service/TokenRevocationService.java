@@ -0,0 +1,262 @@
+package com.chat.allchatonthis.config.security.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.jsonwebtoken.Claims;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Revocation of issued JWTs, shared by all nodes through Redis
+ * <p>
+ * Two mechanisms, both checked on every authenticated request:
+ * - a per-user token version, bumped to revoke every token of the user; tokens carry the version they were
+ * issued with in the "ver" claim
+ * - a deny-list of single token ids ("jti" claim), each entry expiring with the token it revokes
+ * <p>
+ * Both are mirrored locally so the common case, a token that is not revoked, needs no network call: the versions
+ * in a map, the deny-list in a Bloom filter whose rare false positives are confirmed against Redis. Other nodes
+ * learn about revocations through pub/sub, and the local state is rebuilt from Redis periodically, which also
+ * drops expired entries from the Bloom filter and recovers from missed messages.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TokenRevocationService implements MessageListener {
+
+    /**
+     * Redis channel carrying revocations, "jti:{jti}" or "ver:{userId}:{version}"
+     */
+    public static final String CHANNEL = "acot_token_revocation";
+
+    private static final String VERSION_KEY_PREFIX = "acot_token_version:";
+    private static final String DENYLIST_KEY_PREFIX = "acot_token_denylist:";
+
+    private static final String JTI_MESSAGE_PREFIX = "jti:";
+    private static final String VERSION_MESSAGE_PREFIX = "ver:";
+
+    /**
+     * Sizing of the Bloom filter, it is rebuilt before expired revocations could fill it up
+     */
+    private static final int EXPECTED_REVOCATIONS = 100_000;
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * Current token version of each user that ever had their tokens revoked, users absent here are at version 0
+     */
+    private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+
+    private volatile BloomFilter<CharSequence> revokedTokenIds = newBloomFilter();
+    /**
+     * The filter being rebuilt by {@link #resync()}, so revocations received meanwhile are not lost by the swap
+     */
+    private volatile BloomFilter<CharSequence> rebuildingTokenIds;
+
+    @PostConstruct
+    public void init() {
+        // Shares the subscription connection of the cache invalidation listener
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+        resync();
+    }
+
+    /**
+     * Check whether a verified token has been revoked
+     *
+     * @param claims The verified claims of the token
+     * @return true if the token was revoked by itself or with all tokens of its user
+     */
+    public boolean isRevoked(Claims claims) {
+        Long userId = claims.get("userId", Long.class);
+        if (userId != null) {
+            Long version = versions.get(userId);
+            if (version != null && tokenVersion(claims) < version) {
+                return true;
+            }
+        }
+
+        String tokenId = claims.getId();
+        if (tokenId == null || !revokedTokenIds.mightContain(tokenId)) {
+            return false;
+        }
+        // Possibly a false positive of the Bloom filter, the deny-list decides
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.hasKey(DENYLIST_KEY_PREFIX + tokenId));
+        } catch (Exception e) {
+            log.error("Failed to check token {} against the deny-list, treating it as revoked: {}", tokenId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Get the token version to issue a new token of the user with
+     *
+     * @param userId The user ID
+     * @return The user's current token version
+     */
+    public long currentVersion(Long userId) {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(VERSION_KEY_PREFIX + userId);
+            long version = value != null ? Long.parseLong(value) : 0L;
+            if (version > 0) {
+                versions.merge(userId, version, Math::max);
+            }
+            return version;
+        } catch (Exception e) {
+            log.error("Failed to read the token version of user {}, using the local one: {}", userId, e.getMessage());
+            return versions.getOrDefault(userId, 0L);
+        }
+    }
+
+    /**
+     * Revoke a single token
+     * <p>
+     * Tokens issued before token ids were introduced cannot be told apart, for those all tokens of the user are revoked.
+     *
+     * @param claims The verified claims of the token
+     */
+    public void revoke(Claims claims) {
+        String tokenId = claims.getId();
+        if (tokenId == null) {
+            Long userId = claims.get("userId", Long.class);
+            if (userId != null) {
+                revokeAll(userId);
+            }
+            return;
+        }
+
+        // The entry is only needed for as long as the token would otherwise stay valid
+        long ttlMillis = claims.getExpiration().getTime() - new Date().getTime();
+        if (ttlMillis <= 0) {
+            return;
+        }
+        stringRedisTemplate.opsForValue().set(DENYLIST_KEY_PREFIX + tokenId, "1", Duration.ofMillis(ttlMillis));
+        addRevokedTokenId(tokenId);
+        publish(JTI_MESSAGE_PREFIX + tokenId);
+    }
+
+    /**
+     * Revoke every token issued to the user so far
+     *
+     * @param userId The user ID
+     */
+    public void revokeAll(Long userId) {
+        Long version = stringRedisTemplate.opsForValue().increment(VERSION_KEY_PREFIX + userId);
+        if (version == null) {
+            return;
+        }
+        versions.merge(userId, version, Math::max);
+        publish(VERSION_MESSAGE_PREFIX + userId + ":" + version);
+    }
+
+    /**
+     * Receives revocations made on other nodes (and this one's own, which are already applied)
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (body.startsWith(JTI_MESSAGE_PREFIX)) {
+                addRevokedTokenId(body.substring(JTI_MESSAGE_PREFIX.length()));
+            } else if (body.startsWith(VERSION_MESSAGE_PREFIX)) {
+                String[] parts = body.substring(VERSION_MESSAGE_PREFIX.length()).split(":");
+                versions.merge(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Math::max);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed token revocation message: {}", body);
+        }
+    }
+
+    /**
+     * Rebuild the local state from Redis
+     * <p>
+     * Runs at startup and then every 10 minutes: the Bloom filter cannot forget, so this is what drops
+     * revocations of tokens that have expired since, and what catches up on messages missed while disconnected.
+     */
+    @Scheduled(initialDelay = 10 * 60 * 1000, fixedDelay = 10 * 60 * 1000)
+    public void resync() {
+        try {
+            BloomFilter<CharSequence> rebuilt = newBloomFilter();
+            rebuildingTokenIds = rebuilt;
+            scan(DENYLIST_KEY_PREFIX + "*", key -> rebuilt.put(key.substring(DENYLIST_KEY_PREFIX.length())));
+            revokedTokenIds = rebuilt;
+
+            List<String> versionKeys = new ArrayList<>();
+            scan(VERSION_KEY_PREFIX + "*", versionKeys::add);
+            for (int from = 0; from < versionKeys.size(); from += SCAN_BATCH_SIZE) {
+                List<String> batch = versionKeys.subList(from, Math.min(from + SCAN_BATCH_SIZE, versionKeys.size()));
+                List<String> values = stringRedisTemplate.opsForValue().multiGet(batch);
+                if (values == null) {
+                    continue;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (values.get(i) != null) {
+                        Long userId = Long.parseLong(batch.get(i).substring(VERSION_KEY_PREFIX.length()));
+                        versions.merge(userId, Long.parseLong(values.get(i)), Math::max);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to load token revocations from Redis, keeping the local state: {}", e.getMessage());
+        } finally {
+            rebuildingTokenIds = null;
+        }
+    }
+
+    private void addRevokedTokenId(String tokenId) {
+        revokedTokenIds.put(tokenId);
+        BloomFilter<CharSequence> rebuilding = rebuildingTokenIds;
+        if (rebuilding != null) {
+            rebuilding.put(tokenId);
+        }
+    }
+
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(CHANNEL, message);
+        } catch (Exception e) {
+            // The periodic resync brings the other nodes up to date
+            log.error("Failed to publish token revocation {}: {}", message, e.getMessage());
+        }
+    }
+
+    private void scan(String pattern, Consumer<String> consumer) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_BATCH_SIZE).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            cursor.forEachRemaining(consumer);
+        }
+    }
+
+    private static long tokenVersion(Claims claims) {
+        // Tokens issued before versions were introduced are at version 0
+        Long version = claims.get("ver", Long.class);
+        return version != null ? version : 0L;
+    }
+
+    private static BloomFilter<CharSequence> newBloomFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), EXPECTED_REVOCATIONS, FALSE_POSITIVE_RATE);
+    }
+}
@@ -3,6 +3,7 @@ package com.chat.allchatonthis.config.security.service;
 import com.chat.allchatonthis.entity.dataobject.UserDO;
 import com.chat.allchatonthis.config.security.model.LoginUser;
 import com.chat.allchatonthis.service.core.UserService;
+import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -32,6 +33,30 @@ public class UserDetailsServiceImpl implements UserDetailsService {
         return convertToLoginUser(user);
     }
 
+    /**
+     * Build the user of an already verified token from its claims
+     * <p>
+     * Tokens carry the username (subject), userId and loginType, which is all the principal needs for request
+     * handling, so no query is made. Tokens issued without a userId claim fall back to a lookup by username.
+     *
+     * @param claims The verified claims of the token
+     * @return The user details
+     * @throws UsernameNotFoundException if the fallback lookup finds no user
+     */
+    public UserDetails loadUserByClaims(Claims claims) throws UsernameNotFoundException {
+        Long userId = claims.get("userId", Long.class);
+        if (userId == null) {
+            return loadUserByUsername(claims.getSubject());
+        }
+
+        LoginUser loginUser = new LoginUser();
+        loginUser.setUserId(userId);
+        loginUser.setUsername(claims.getSubject());
+        loginUser.setLoginType(claims.get("loginType", Integer.class));
+        loginUser.setPermissions(Collections.emptyList()); // Set permissions if needed
+        return loginUser;
+    }
+
     /**
      * Find user by social credentials (openId and socialType)
      */
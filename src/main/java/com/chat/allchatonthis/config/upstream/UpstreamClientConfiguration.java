@@ -0,0 +1,60 @@
+package com.chat.allchatonthis.config.upstream;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Configuration of the shared HTTP client used to call upstream LLM providers
+ */
+@Configuration
+@EnableConfigurationProperties(UpstreamProperties.class)
+public class UpstreamClientConfiguration {
+
+    /**
+     * Metrics of the upstream calls, shared by the client and the services interpreting the responses
+     *
+     * @param meterRegistry The application's meter registry
+     * @return UpstreamMetrics instance
+     */
+    @Bean
+    public UpstreamMetrics upstreamMetrics(MeterRegistry meterRegistry) {
+        return new UpstreamMetrics(meterRegistry);
+    }
+
+    /**
+     * A single {@link HttpClient} shared by all upstream calls.
+     * <p>
+     * The client keeps a keep-alive connection pool per host, so consecutive messages to the same
+     * provider reuse the TLS session instead of handshaking on every call.
+     * With virtual threads enabled, the client's internal work (TLS, HTTP/2 frames, body delivery)
+     * runs on virtual threads too instead of its default cached platform pool.
+     * A single daemon thread enforces the body read deadlines, it only closes timed out responses.
+     *
+     * @param properties      Upstream client settings
+     * @param environment     Environment used to detect virtual thread mode
+     * @param upstreamMetrics Metrics recorded for every call
+     * @return UpstreamHttpClient instance
+     */
+    @Bean
+    public UpstreamHttpClient upstreamHttpClient(UpstreamProperties properties, Environment environment,
+                                                 UpstreamMetrics upstreamMetrics) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(properties.isHttp2Enabled() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(properties.getConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (Threading.VIRTUAL.isActive(environment)) {
+            builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("upstream-deadline").daemon().factory());
+        return new UpstreamHttpClient(builder.build(), properties, upstreamMetrics, deadlineScheduler);
+    }
+}
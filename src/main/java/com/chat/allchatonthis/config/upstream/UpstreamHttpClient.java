@@ -0,0 +1,434 @@
+package com.chat.allchatonthis.config.upstream;
+
+import com.chat.allchatonthis.common.exception.ServiceException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.API_CALL_FAILED;
+
+/**
+ * HTTP client for upstream LLM provider calls
+ * <p>
+ * Wraps a shared {@link HttpClient}, which pools keep-alive connections per host and negotiates
+ * HTTP/2 where the provider supports it. Responses are requested gzip compressed and decoded here.
+ * <p>
+ * The JDK client only applies the request timeout to the response headers. Fully read responses get a
+ * deadline of their own: if the body is not read within the read timeout after the headers arrived, the
+ * exchange is cancelled by closing the body, so a stalled provider cannot block the caller forever.
+ * Streamed bodies have no overall deadline but an idle one: the body is closed when no line arrived within the
+ * stream idle timeout. A stream can also be cancelled by its consumer, see {@link StreamCancellation}.
+ */
+@Slf4j
+@AllArgsConstructor
+public class UpstreamHttpClient {
+
+    /**
+     * Headers managed by the JDK client itself, setting them on a request is rejected
+     */
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final HttpClient httpClient;
+    private final UpstreamProperties properties;
+    private final UpstreamMetrics upstreamMetrics;
+
+    /**
+     * Runs the body read deadlines
+     */
+    private final ScheduledExecutorService deadlineScheduler;
+
+    /**
+     * Sends a POST request and reads the whole response body
+     *
+     * @param configId    The configuration the call is made for (metrics only), null if unsaved
+     * @param url         URL
+     * @param headers     Request headers
+     * @param requestBody Request body
+     * @return The response status and body
+     */
+    public UpstreamResponse post(Long configId, String url, Map<String, String> headers, String requestBody) {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = send(configId, url, headers, ofString(requestBody), start);
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> deadline = scheduleBodyDeadline(response, expired);
+        try (InputStream body = decode(response)) {
+            String content = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+            if (expired.get()) {
+                throw readTimedOut();
+            }
+            return new UpstreamResponse(response.statusCode(), content);
+        } catch (IOException e) {
+            throw expired.get() ? readTimedOut()
+                    : new ServiceException(API_CALL_FAILED.getCode(), "Error reading API response: " + e.getMessage());
+        } finally {
+            deadline.cancel(false);
+            upstreamMetrics.recordCompletion(url, configId, response.statusCode(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sends a POST request and lets the reader consume the response body as it arrives
+     * <p>
+     * The reader is only invoked for a successful response, an error status is raised as a {@link ServiceException}
+     * carrying the response body. Whatever the reader leaves unread is drained so the connection can be reused.
+     * A body the reader fails to parse as JSON is counted as a parse failure.
+     *
+     * @param configId    The configuration the call is made for (metrics only), null if unsaved
+     * @param url         URL
+     * @param headers     Request headers
+     * @param requestBody Request body
+     * @param reader      Reader of the decoded response body
+     * @return The result of the reader
+     */
+    public <T> T post(Long configId, String url, Map<String, String> headers, String requestBody, ResponseReader<T> reader) {
+        return post(configId, url, headers, ofString(requestBody), reader);
+    }
+
+    /**
+     * Variant of {@link #post(Long, String, Map, String, ResponseReader)} sending a body made of several chunks,
+     * which are written to the connection one after the other without being joined first
+     *
+     * @param configId    The configuration the call is made for (metrics only), null if unsaved
+     * @param url         URL
+     * @param headers     Request headers
+     * @param requestBody Request body chunks
+     * @param reader      Reader of the decoded response body
+     * @return The result of the reader
+     */
+    public <T> T post(Long configId, String url, Map<String, String> headers, List<byte[]> requestBody, ResponseReader<T> reader) {
+        return post(configId, url, headers, ofByteArrays(requestBody), reader);
+    }
+
+    private <T> T post(Long configId, String url, Map<String, String> headers, HttpRequest.BodyPublisher requestBody, ResponseReader<T> reader) {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = send(configId, url, headers, requestBody, start);
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> deadline = scheduleBodyDeadline(response, expired);
+        try (InputStream body = decode(response)) {
+            if (!isSuccessful(response.statusCode())) {
+                throw new ServiceException(API_CALL_FAILED.getCode(), "API returned error status: "
+                        + response.statusCode() + ", body: " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            T result = reader.read(body);
+            body.transferTo(OutputStream.nullOutputStream());
+            if (expired.get()) {
+                throw readTimedOut();
+            }
+            return result;
+        } catch (JsonProcessingException e) {
+            // A body cut short by the deadline is not a parse failure of the provider
+            if (expired.get()) {
+                throw readTimedOut();
+            }
+            upstreamMetrics.recordParseFailure(url, configId);
+            throw new ServiceException(API_CALL_FAILED.getCode(), "Error parsing API response: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw expired.get() ? readTimedOut()
+                    : new ServiceException(API_CALL_FAILED.getCode(), "Error reading API response: " + e.getMessage());
+        } finally {
+            deadline.cancel(false);
+            upstreamMetrics.recordCompletion(url, configId, response.statusCode(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sends a POST request and hands the response body to the consumer line by line as it arrives
+     * <p>
+     * Suited for Server-Sent Events, the body is never held in memory as a whole
+     *
+     * @param configId     The configuration the call is made for (metrics only), null if unsaved
+     * @param url          URL
+     * @param headers      Request headers
+     * @param requestBody  Request body
+     * @param lineConsumer Callback invoked for every line of the response
+     * @param cancellation Cancels the stream from another thread, null if the stream is never cancelled
+     */
+    public void postStream(Long configId, String url, Map<String, String> headers, String requestBody,
+                           Consumer<String> lineConsumer, StreamCancellation cancellation) {
+        postStream(configId, url, headers, ofString(requestBody), lineConsumer, cancellation);
+    }
+
+    /**
+     * Variant of {@link #postStream(Long, String, Map, String, Consumer, StreamCancellation)} sending a body made of several chunks,
+     * which are written to the connection one after the other without being joined first
+     *
+     * @param configId     The configuration the call is made for (metrics only), null if unsaved
+     * @param url          URL
+     * @param headers      Request headers
+     * @param requestBody  Request body chunks
+     * @param lineConsumer Callback invoked for every line of the response
+     * @param cancellation Cancels the stream from another thread, null if the stream is never cancelled
+     */
+    public void postStream(Long configId, String url, Map<String, String> headers, List<byte[]> requestBody,
+                           Consumer<String> lineConsumer, StreamCancellation cancellation) {
+        postStream(configId, url, headers, ofByteArrays(requestBody), lineConsumer, cancellation);
+    }
+
+    private void postStream(Long configId, String url, Map<String, String> headers, HttpRequest.BodyPublisher requestBody,
+                            Consumer<String> lineConsumer, StreamCancellation cancellation) {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = send(configId, url, headers, requestBody, start);
+        IdleDeadline deadline = new IdleDeadline(response);
+        if (cancellation != null) {
+            cancellation.attach(response.body());
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(decode(response), StandardCharsets.UTF_8))) {
+            if (!isSuccessful(response.statusCode())) {
+                StringBuilder error = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    deadline.touch();
+                    error.append(line);
+                }
+                throw new ServiceException(API_CALL_FAILED.getCode(),
+                        "API returned error status: " + response.statusCode() + ", body: " + error);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                deadline.touch();
+                lineConsumer.accept(line);
+            }
+            // A closed body may read as a clean end of stream
+            checkStreamInterrupted(deadline, cancellation);
+        } catch (IOException e) {
+            checkStreamInterrupted(deadline, cancellation);
+            throw new ServiceException(API_CALL_FAILED.getCode(), "Error reading streamed response: " + e.getMessage());
+        } finally {
+            deadline.stop();
+            upstreamMetrics.recordCompletion(url, configId, response.statusCode(), System.nanoTime() - start);
+        }
+    }
+
+    private static HttpRequest.BodyPublisher ofString(String requestBody) {
+        return HttpRequest.BodyPublishers.ofString(requestBody, StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest.BodyPublisher ofByteArrays(List<byte[]> requestBody) {
+        // The length is known up front, so the request carries a Content-Length instead of being chunk encoded
+        long contentLength = 0;
+        for (byte[] chunk : requestBody) {
+            contentLength += chunk.length;
+        }
+        if (contentLength == 0) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(requestBody), contentLength);
+    }
+
+    /**
+     * Sends the request and waits for the response headers, recording the time to first byte. A call failing
+     * before any response is recorded as completed with no status.
+     */
+    private HttpResponse<InputStream> send(Long configId, String url, Map<String, String> headers,
+                                           HttpRequest.BodyPublisher requestBody, long start) {
+        URI uri = URI.create(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(properties.getReadTimeout())
+                .POST(requestBody);
+
+        // h2c upgrades over plain http are poorly supported by proxies, keep those on HTTP/1.1
+        if (!"https".equalsIgnoreCase(uri.getScheme())) {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+
+        boolean hasAcceptEncoding = false;
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getValue() == null || RESTRICTED_HEADERS.contains(header.getKey().toLowerCase())) {
+                    continue;
+                }
+                hasAcceptEncoding |= "accept-encoding".equalsIgnoreCase(header.getKey());
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        if (properties.isGzipEnabled() && !hasAcceptEncoding) {
+            builder.header("Accept-Encoding", "gzip");
+        }
+
+        try {
+            HttpResponse<InputStream> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            upstreamMetrics.recordFirstByte(url, configId, System.nanoTime() - start);
+            return response;
+        } catch (IOException e) {
+            upstreamMetrics.recordCompletion(url, configId, null, System.nanoTime() - start);
+            throw new ServiceException(API_CALL_FAILED.getCode(), "Error calling API: " + e.getMessage());
+        } catch (InterruptedException e) {
+            upstreamMetrics.recordCompletion(url, configId, null, System.nanoTime() - start);
+            Thread.currentThread().interrupt();
+            throw new ServiceException(API_CALL_FAILED.getCode(), "API call interrupted");
+        }
+    }
+
+    /**
+     * Closes the response body once the read timeout has elapsed, which cancels the exchange and makes a read
+     * blocked on it return
+     *
+     * @param expired Set when the deadline fired, a read ending afterwards has an incomplete body
+     */
+    private ScheduledFuture<?> scheduleBodyDeadline(HttpResponse<InputStream> response, AtomicBoolean expired) {
+        return deadlineScheduler.schedule(() -> {
+            expired.set(true);
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                log.debug("Error closing timed out response body: {}", e.getMessage());
+            }
+        }, properties.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void checkStreamInterrupted(IdleDeadline deadline, StreamCancellation cancellation) {
+        if (deadline.expired) {
+            throw new ServiceException(API_CALL_FAILED.getCode(),
+                    "API stream idle for more than " + properties.getStreamIdleTimeout().toSeconds() + "s");
+        }
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new ServiceException(API_CALL_FAILED.getCode(), "API stream cancelled");
+        }
+    }
+
+    private ServiceException readTimedOut() {
+        return new ServiceException(API_CALL_FAILED.getCode(),
+                "API response not read within " + properties.getReadTimeout().toSeconds() + "s");
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            log.debug("Error closing response body: {}", e.getMessage());
+        }
+    }
+
+    private static InputStream decode(HttpResponse<InputStream> response) throws IOException {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(response.body());
+        }
+        return response.body();
+    }
+
+    private static boolean isSuccessful(int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Closes a streamed body once no line arrived within the stream idle timeout
+     * <p>
+     * Lines only record when they arrived. A single task checks that time when it fires and schedules itself
+     * again for the remainder, so reading a line costs no scheduling.
+     */
+    private final class IdleDeadline implements Runnable {
+
+        private final HttpResponse<InputStream> response;
+        private final long timeoutNanos = properties.getStreamIdleTimeout().toNanos();
+        private volatile long lastLineNanos = System.nanoTime();
+        private volatile boolean stopped;
+        private volatile boolean expired;
+        private volatile ScheduledFuture<?> check;
+
+        IdleDeadline(HttpResponse<InputStream> response) {
+            this.response = response;
+            this.check = deadlineScheduler.schedule(this, timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void touch() {
+            lastLineNanos = System.nanoTime();
+        }
+
+        void stop() {
+            stopped = true;
+            check.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            long idleNanos = System.nanoTime() - lastLineNanos;
+            if (idleNanos < timeoutNanos) {
+                check = deadlineScheduler.schedule(this, timeoutNanos - idleNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            expired = true;
+            closeQuietly(response.body());
+        }
+    }
+
+    /**
+     * Cancels a streamed call from another thread, e.g. when the client it is relayed to went away
+     * <p>
+     * Cancelling closes the response body, which makes the blocked read return. A call cancelled before its
+     * response arrived is closed as soon as it does.
+     */
+    public static final class StreamCancellation {
+
+        private volatile boolean cancelled;
+        private volatile InputStream body;
+
+        public void cancel() {
+            cancelled = true;
+            InputStream current = body;
+            if (current != null) {
+                closeQuietly(current);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void attach(InputStream body) {
+            this.body = body;
+            if (cancelled) {
+                closeQuietly(body);
+            }
+        }
+    }
+
+    /**
+     * Consumes a response body
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Status and body of a fully read upstream response
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class UpstreamResponse {
+
+        private final int statusCode;
+        private final String body;
+
+        public boolean isSuccessful() {
+            return UpstreamHttpClient.isSuccessful(statusCode);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.chat.allchatonthis.config.upstream;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Metrics of the calls to upstream LLM providers, tagged by host and configuration
+ * <p>
+ * Meters:
+ * - acot.upstream.ttfb: time until the response headers arrived
+ * - acot.upstream.latency: time until the response was fully read, also tagged with the HTTP status
+ * ("IO_ERROR" when no response came back)
+ * - acot.upstream.parse.failures: responses the configured paths found no content in, or that were not valid JSON
+ * - acot.upstream.tokens: prompt and completion tokens reported in the response's usage, tagged with the type
+ * <p>
+ * The meters of a (host, configuration) pair are resolved once and kept in a bounded cache, so recording a call
+ * does not build or look up meters. Hosts and configuration ids come from user input: the cache keeps the pairs
+ * used most often and recently, and the meters of an evicted pair are removed from the registry, bounding the
+ * number of series without freezing the set of configurations that get one.
+ */
+public class UpstreamMetrics {
+
+    /**
+     * Bound on the (host, configuration) pairs with meters
+     */
+    static final int MAX_SERIES = 500;
+
+    /**
+     * Bound on the URLs whose host is remembered
+     */
+    private static final int MAX_URLS = 1_000;
+
+    private static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Cache<String, String> hostsByUrl = Caffeine.newBuilder()
+            .maximumSize(MAX_URLS)
+            .build();
+
+    private final Cache<SeriesKey, Series> series = Caffeine.newBuilder()
+            .maximumSize(MAX_SERIES)
+            // Runs as part of the eviction, so the meters are gone before the pair can be registered again
+            .evictionListener((SeriesKey key, Series value, RemovalCause cause) -> {
+                if (value != null) {
+                    value.remove();
+                }
+            })
+            .build();
+
+    private final Function<SeriesKey, Series> newSeries = key -> new Series(Tags.of(
+            "host", key.host(),
+            "config", key.configId() != null ? String.valueOf(key.configId()) : NONE));
+
+    public UpstreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Record the time until the response headers of a call arrived
+     *
+     * @param url      The URL called
+     * @param configId The configuration the call was made for, null if unsaved
+     * @param nanos    Time since the request was sent
+     */
+    public void recordFirstByte(String url, Long configId, long nanos) {
+        series(url, configId).firstByte.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a completed call
+     *
+     * @param url      The URL called
+     * @param configId The configuration the call was made for, null if unsaved
+     * @param status   The HTTP status, or null if the call failed before a response came back
+     * @param nanos    Time since the request was sent
+     */
+    public void recordCompletion(String url, Long configId, Integer status, long nanos) {
+        series(url, configId).latency(status).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a response the content could not be extracted from
+     *
+     * @param url      The URL called
+     * @param configId The configuration the call was made for, null if unsaved
+     */
+    public void recordParseFailure(String url, Long configId) {
+        series(url, configId).parseFailures.increment();
+    }
+
+    /**
+     * Record the token usage reported by a response, either count may be missing
+     *
+     * @param url              The URL called
+     * @param configId         The configuration the call was made for, null if unsaved
+     * @param promptTokens     The prompt tokens, or null
+     * @param completionTokens The completion tokens, or null
+     */
+    public void recordUsage(String url, Long configId, Number promptTokens, Number completionTokens) {
+        if (promptTokens == null && completionTokens == null) {
+            return;
+        }
+        Series meters = series(url, configId);
+        if (promptTokens != null) {
+            meters.promptTokens.record(promptTokens.doubleValue());
+        }
+        if (completionTokens != null) {
+            meters.completionTokens.record(completionTokens.doubleValue());
+        }
+    }
+
+    private Series series(String url, Long configId) {
+        String host = url != null ? hostsByUrl.get(url, UpstreamMetrics::host) : NONE;
+        return series.get(new SeriesKey(host, configId), newSeries);
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : NONE;
+        } catch (IllegalArgumentException e) {
+            return NONE;
+        }
+    }
+
+    private record SeriesKey(String host, Long configId) {
+    }
+
+    /**
+     * The meters of one (host, configuration) pair
+     */
+    private class Series {
+
+        private final Tags tags;
+        private final Timer firstByte;
+        private final Counter parseFailures;
+        private final DistributionSummary promptTokens;
+        private final DistributionSummary completionTokens;
+
+        /**
+         * Latency timers by status, few per pair
+         */
+        private final ConcurrentMap<Integer, Timer> latencyByStatus = new ConcurrentHashMap<>();
+        private volatile Timer ioErrorLatency;
+
+        Series(Tags tags) {
+            this.tags = tags;
+            this.firstByte = Timer.builder("acot.upstream.ttfb")
+                    .description("Time to the first byte of upstream responses")
+                    .tags(tags)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+            this.parseFailures = Counter.builder("acot.upstream.parse.failures")
+                    .description("Upstream responses no content could be extracted from")
+                    .tags(tags)
+                    .register(meterRegistry);
+            this.promptTokens = tokenSummary("prompt");
+            this.completionTokens = tokenSummary("completion");
+        }
+
+        Timer latency(Integer status) {
+            if (status == null) {
+                Timer timer = ioErrorLatency;
+                if (timer == null) {
+                    timer = latencyTimer("IO_ERROR");
+                    ioErrorLatency = timer;
+                }
+                return timer;
+            }
+            Timer timer = latencyByStatus.get(status);
+            return timer != null ? timer : latencyByStatus.computeIfAbsent(status, key -> latencyTimer(String.valueOf(key)));
+        }
+
+        void remove() {
+            meterRegistry.remove(firstByte);
+            meterRegistry.remove(parseFailures);
+            meterRegistry.remove(promptTokens);
+            meterRegistry.remove(completionTokens);
+            latencyByStatus.values().forEach(meterRegistry::remove);
+            Timer timer = ioErrorLatency;
+            if (timer != null) {
+                meterRegistry.remove(timer);
+            }
+        }
+
+        private Timer latencyTimer(String status) {
+            return Timer.builder("acot.upstream.latency")
+                    .description("Total latency of upstream calls")
+                    .tags(tags.and("status", status))
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+        }
+
+        private DistributionSummary tokenSummary(String type) {
+            return DistributionSummary.builder("acot.upstream.tokens")
+                    .description("Tokens per upstream call as reported by the provider")
+                    .baseUnit("tokens")
+                    .tags(tags.and("type", type))
+                    .register(meterRegistry);
+        }
+    }
+}
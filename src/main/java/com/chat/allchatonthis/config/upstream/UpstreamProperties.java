@@ -0,0 +1,40 @@
+package com.chat.allchatonthis.config.upstream;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings of the HTTP client used to call upstream LLM providers
+ */
+@Data
+@ConfigurationProperties(prefix = "acot.upstream")
+public class UpstreamProperties {
+
+    /**
+     * Maximum time to establish a TCP/TLS connection to a provider
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Maximum time to wait for the response headers of a provider, then again to read a non-streamed body.
+     * Streamed bodies are not limited by it, a generation may keep streaming past this timeout.
+     */
+    private Duration readTimeout = Duration.ofSeconds(120);
+
+    /**
+     * Maximum time between two lines of a streamed body, a provider silent for longer is considered stalled
+     */
+    private Duration streamIdleTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Whether to negotiate HTTP/2 with providers that support it (https only, plain http stays on HTTP/1.1)
+     */
+    private boolean http2Enabled = true;
+
+    /**
+     * Whether to ask providers for gzip compressed responses
+     */
+    private boolean gzipEnabled = true;
+}
@@ -1,8 +1,12 @@
 package com.chat.allchatonthis.controller.admin;
 
 import com.chat.allchatonthis.common.pojo.CommonResult;
+import com.chat.allchatonthis.config.metrics.online.UserActivityTracker;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import io.micrometer.core.instrument.search.Search;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -12,7 +16,9 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller for exposing application metrics
@@ -24,9 +30,10 @@ import java.util.Map;
 public class MetricsController {
 
     private final MeterRegistry meterRegistry;
+    private final UserActivityTracker userActivityTracker;
 
     /**
-     * Get the current number of online users
+     * Get the current number of online users, users active in the last 5 minutes on any node
      */
     @GetMapping("/online-users")
     public CommonResult<Integer> getOnlineUsers() {
@@ -35,9 +42,24 @@ public class MetricsController {
         return CommonResult.success(onlineUsers);
     }
 
+    /**
+     * Get the number of distinct active users across all nodes: online (last 5 minutes), today and this month (UTC)
+     */
+    @GetMapping("/active-users")
+    public CommonResult<Map<String, Long>> getActiveUsers() {
+        Map<String, Long> activeUsers = new LinkedHashMap<>();
+        activeUsers.put("online", userActivityTracker.getOnlineUsers());
+        activeUsers.put("daily", userActivityTracker.getDailyActiveUsers());
+        activeUsers.put("monthly", userActivityTracker.getMonthlyActiveUsers());
+        return CommonResult.success(activeUsers);
+    }
+
     /**
      * Get endpoint call statistics
      * This endpoint requires admin access
+     * <p>
+     * Per endpoint: the number of calls, and per outcome ("success" or an error code) the number of completed
+     * calls with their mean and p50/p95/p99 latency in milliseconds
      */
     @GetMapping("/endpoints")
     public CommonResult<Map<String, Object>> getEndpointStats() {
@@ -48,27 +70,154 @@ public class MetricsController {
             .name("acot.endpoint.calls")
             .counters()
             .forEach(counter -> {
-                Iterable<Tag> tags = counter.getId().getTags();
-                
-                String controller = "";
-                String method = "";
-                
-                // Iterate through tags to find controller and method
-                for (Tag tag : tags) {
-                    if ("controller".equals(tag.getKey())) {
-                        controller = tag.getValue();
-                    } else if ("method".equals(tag.getKey())) {
-                        method = tag.getValue();
-                    }
+                String endpoint = endpointName(counter.getId());
+                endpointStats(stats, endpoint).put("calls", (int) counter.count());
+            });
+
+        // Get all endpoint latency timers, one per endpoint and outcome
+        Search.in(meterRegistry)
+            .name("acot.endpoint.latency")
+            .timers()
+            .forEach(timer -> {
+                String endpoint = endpointName(timer.getId());
+                String outcome = timer.getId().getTag("outcome");
+
+                HistogramSnapshot snapshot = timer.takeSnapshot();
+                Map<String, Object> latency = new LinkedHashMap<>();
+                latency.put("count", snapshot.count());
+                latency.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+                for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                    latency.put("p" + Math.round(percentile.percentile() * 100) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
                 }
-                
-                String endpoint = controller + "." + method;
-                stats.put(endpoint, (int) counter.count());
+
+                @SuppressWarnings("unchecked")
+                Map<String, Object> outcomes = (Map<String, Object>) endpointStats(stats, endpoint)
+                        .computeIfAbsent("outcomes", k -> new HashMap<String, Object>());
+                outcomes.put(outcome, latency);
             });
         
         return CommonResult.success(stats);
     }
 
+    /**
+     * "Controller.method" name of an endpoint meter
+     */
+    private static String endpointName(Meter.Id id) {
+        String controller = "";
+        String method = "";
+
+        // Iterate through tags to find controller and method
+        for (Tag tag : id.getTags()) {
+            if ("controller".equals(tag.getKey())) {
+                controller = tag.getValue();
+            } else if ("method".equals(tag.getKey())) {
+                method = tag.getValue();
+            }
+        }
+
+        return controller + "." + method;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> endpointStats(Map<String, Object> stats, String endpoint) {
+        return (Map<String, Object>) stats.computeIfAbsent(endpoint, k -> new LinkedHashMap<String, Object>());
+    }
+
+    /**
+     * Get upstream LLM provider statistics
+     * <p>
+     * Per host and configuration ("host/config"): the number of calls and of failed ones (non-2xx status or no
+     * response), the mean total latency and time to first byte in milliseconds, the responses no content could be
+     * extracted from, and the prompt and completion tokens reported by the provider
+     */
+    @GetMapping("/upstream")
+    public CommonResult<Map<String, Object>> getUpstreamStats() {
+        Map<String, Object> stats = new HashMap<>();
+
+        Search.in(meterRegistry)
+            .name("acot.upstream.latency")
+            .timers()
+            .forEach(timer -> {
+                Map<String, Object> upstream = upstreamStats(stats, timer.getId());
+                String status = timer.getId().getTag("status");
+                long count = timer.count();
+                double totalMs = timer.totalTime(TimeUnit.MILLISECONDS);
+                upstream.merge("requests", count, (a, b) -> (Long) a + (Long) b);
+                upstream.merge("errors", status != null && status.startsWith("2") ? 0L : count, (a, b) -> (Long) a + (Long) b);
+                upstream.merge("totalLatencyMs", totalMs, (a, b) -> (Double) a + (Double) b);
+            });
+
+        Search.in(meterRegistry)
+            .name("acot.upstream.ttfb")
+            .timers()
+            .forEach(timer -> upstreamStats(stats, timer.getId()).put("meanTtfbMs", timer.mean(TimeUnit.MILLISECONDS)));
+
+        Search.in(meterRegistry)
+            .name("acot.upstream.parse.failures")
+            .counters()
+            .forEach(counter -> upstreamStats(stats, counter.getId()).put("parseFailures", (long) counter.count()));
+
+        Search.in(meterRegistry)
+            .name("acot.upstream.tokens")
+            .summaries()
+            .forEach(summary -> upstreamStats(stats, summary.getId())
+                    .put(summary.getId().getTag("type") + "Tokens", (long) summary.totalAmount()));
+
+        // The latency is summed over the status series above, turn it into a mean
+        stats.values().forEach(value -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> upstream = (Map<String, Object>) value;
+            Object totalMs = upstream.remove("totalLatencyMs");
+            Object requests = upstream.get("requests");
+            if (totalMs != null && (Long) requests > 0) {
+                upstream.put("meanLatencyMs", (Double) totalMs / (Long) requests);
+            }
+        });
+
+        return CommonResult.success(stats);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> upstreamStats(Map<String, Object> stats, Meter.Id id) {
+        String upstream = id.getTag("host") + "/" + id.getTag("config");
+        return (Map<String, Object>) stats.computeIfAbsent(upstream, k -> new LinkedHashMap<String, Object>());
+    }
+
+    /**
+     * Get Redis cache value serialization statistics
+     * <p>
+     * Per cache and encoding ("cache/encoding"): the number of values written, their mean size in bytes, and the
+     * mean time in microseconds to write and to read a value
+     */
+    @GetMapping("/cache-serialization")
+    public CommonResult<Map<String, Object>> getCacheSerializationStats() {
+        Map<String, Object> stats = new HashMap<>();
+
+        Search.in(meterRegistry)
+            .name("acot.cache.value.size")
+            .summaries()
+            .forEach(summary -> {
+                Map<String, Object> cache = cacheSerializationStats(stats, summary.getId());
+                cache.put("values", summary.count());
+                cache.put("meanBytes", summary.mean());
+            });
+
+        Search.in(meterRegistry)
+            .name("acot.cache.serialization")
+            .timers()
+            .forEach(timer -> cacheSerializationStats(stats, timer.getId())
+                    .put("mean" + ("serialize".equals(timer.getId().getTag("operation")) ? "Serialize" : "Deserialize") + "Micros",
+                            timer.mean(TimeUnit.MICROSECONDS)));
+
+        return CommonResult.success(stats);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> cacheSerializationStats(Map<String, Object> stats, Meter.Id id) {
+        String cache = id.getTag("cache") + "/" + id.getTag("encoding");
+        return (Map<String, Object>) stats.computeIfAbsent(cache, k -> new LinkedHashMap<String, Object>());
+    }
+
     /**
      * Get a summary of system metrics
      */
@@ -79,6 +228,8 @@ public class MetricsController {
         // Get online users
         Integer onlineUsers = (int) meterRegistry.get("acot.online.users").gauge().value();
         summary.put("onlineUsers", onlineUsers);
+        summary.put("dailyActiveUsers", userActivityTracker.getDailyActiveUsers());
+        summary.put("monthlyActiveUsers", userActivityTracker.getMonthlyActiveUsers());
         
         // Count total API calls (sum of all endpoint counters)
         double totalApiCalls = Search.in(meterRegistry)
@@ -100,4 +100,13 @@ public class AuthController {
         boolean result = authService.logout(token);
         return CommonResult.success(result);
     }
+
+    /**
+     * Logout the user from every device
+     */
+    @PostMapping("/logout/all")
+    public CommonResult<Boolean> logoutAll(@RequestParam("token") String token) {
+        boolean result = authService.logoutAll(token);
+        return CommonResult.success(result);
+    }
 }
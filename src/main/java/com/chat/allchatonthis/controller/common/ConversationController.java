@@ -1,14 +1,17 @@
 package com.chat.allchatonthis.controller.common;
 
 import com.chat.allchatonthis.common.pojo.CommonResult;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
 import com.chat.allchatonthis.common.pojo.PageResult;
 import com.chat.allchatonthis.common.util.object.BeanUtils;
 import com.chat.allchatonthis.common.util.security.LoginUser;
 import com.chat.allchatonthis.entity.dataobject.ConversationDO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationCreateOrUpdateReqVO;
+import com.chat.allchatonthis.entity.vo.conversation.ConversationCursorPageReqVO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationPageReqVO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationRespVO;
 import com.chat.allchatonthis.service.core.ConversationService;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
@@ -45,6 +48,16 @@ public class ConversationController {
         return CommonResult.success(BeanUtils.toBean(pageResult, ConversationRespVO.class));
     }
 
+    /**
+     * Get conversations for the current user with cursor pagination, most recently updated first
+     */
+    @GetMapping("/cursor")
+    @PreAuthorize("isAuthenticated()")
+    public CommonResult<CursorPageResult<ConversationRespVO>> getConversationCursorPage(@Valid ConversationCursorPageReqVO pageVO, @LoginUser Long userId) {
+        CursorPageResult<ConversationDO> pageResult = conversationService.getConversationCursorPage(userId, pageVO);
+        return CommonResult.success(BeanUtils.toBean(pageResult, ConversationRespVO.class));
+    }
+
     /**
      * Get a specific conversation by ID
      */
@@ -1,6 +1,8 @@
 package com.chat.allchatonthis.controller.common;
 
 import com.chat.allchatonthis.common.pojo.CommonResult;
+import com.chat.allchatonthis.common.pojo.CursorPageParam;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
 import com.chat.allchatonthis.common.util.object.BeanUtils;
 import com.chat.allchatonthis.common.util.security.LoginUser;
 import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
@@ -8,9 +10,13 @@ import com.chat.allchatonthis.entity.vo.conversation.ConversationMessageRenameRe
 import com.chat.allchatonthis.entity.vo.conversation.ConversationMessageRespVO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationSendMessageReqVO;
 import com.chat.allchatonthis.service.core.ConversationMessageService;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -26,14 +32,45 @@ public class ConversationMessageController {
 
     /**
      * Get all messages for a conversation
+     * <p>
+     * Answered with an ETag derived from the conversation's message version; a request whose If-None-Match
+     * still matches gets a 304 without the messages being read
      */
     @GetMapping("/getMessages")
     @PreAuthorize("isAuthenticated()")
-    public CommonResult<List<ConversationMessageRespVO>> getMessages(@RequestParam Long conversationId, @LoginUser Long userId) {
+    public CommonResult<List<ConversationMessageRespVO>> getMessages(@RequestParam Long conversationId, @LoginUser Long userId,
+                                                                     WebRequest webRequest) {
+        // Read before the messages, so a concurrent write can only make the ETag older than the body
+        long version = conversationMessageService.getMessagesVersion(conversationId, userId);
+        if (version >= 0 && webRequest.checkNotModified(conversationId + "-" + version)) {
+            return null;
+        }
         List<ConversationMessageDO> messages = conversationMessageService.getMessages(conversationId, userId);
         return CommonResult.success(BeanUtils.toBean(messages, ConversationMessageRespVO.class));
     }
 
+    /**
+     * Get the messages of a conversation newer than the given message
+     */
+    @GetMapping("/getMessagesAfter")
+    @PreAuthorize("isAuthenticated()")
+    public CommonResult<List<ConversationMessageRespVO>> getMessagesAfter(@RequestParam Long conversationId, @RequestParam(required = false) Long afterId,
+                                                                          @LoginUser Long userId) {
+        List<ConversationMessageDO> messages = conversationMessageService.getMessagesAfter(conversationId, userId, afterId);
+        return CommonResult.success(BeanUtils.toBean(messages, ConversationMessageRespVO.class));
+    }
+
+    /**
+     * Get the messages of a conversation with cursor pagination, newest first
+     */
+    @GetMapping("/cursor")
+    @PreAuthorize("isAuthenticated()")
+    public CommonResult<CursorPageResult<ConversationMessageRespVO>> getMessageCursorPage(@RequestParam Long conversationId, @Valid CursorPageParam pageParam,
+                                                                                         @LoginUser Long userId) {
+        CursorPageResult<ConversationMessageDO> pageResult = conversationMessageService.getMessageCursorPage(conversationId, userId, pageParam);
+        return CommonResult.success(BeanUtils.toBean(pageResult, ConversationMessageRespVO.class));
+    }
+
     /**
      * Get a specific message by ID
      */
@@ -64,6 +101,15 @@ public class ConversationMessageController {
         return CommonResult.success(BeanUtils.toBean(responseMessage, ConversationMessageRespVO.class));
     }
 
+    /**
+     * Send a message and stream the AI response as Server-Sent Events
+     */
+    @PostMapping(value = "/sendMessageStream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("isAuthenticated()")
+    public SseEmitter sendMessageStream(@RequestBody ConversationSendMessageReqVO reqVO, @LoginUser Long userId) {
+        return conversationMessageService.sendMessageStream(reqVO.getMessage(), reqVO.getConfigId(), reqVO.getConversationId(), userId, reqVO.getSecretKey());
+    }
+
     /**
      * Delete a message
      */
@@ -55,6 +55,8 @@ public class UserConfigDO extends BaseDO{
     private String responseTextPath; // JSON path for response text
     private String responseThinkingTextPath; // JSON path for thinking text in response
 
+    private Integer contextTokenBudget; // Max estimated tokens per request, history beyond it is not sent (null for the default)
+
     private LocalDateTime lastUsedTime; // Time when this configuration was last used
 
     // Transient field for secret key (not persisted)
@@ -38,6 +38,7 @@ public class ConfigVO {
     private String requestTextPathFromGroup;
     private String responseTextPath;
     private String responseThinkingTextPath;
+    private Integer contextTokenBudget;
 
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss", timezone = "GMT+8")
     private LocalDateTime lastUsedTime;
@@ -1,9 +1,51 @@
 package com.chat.allchatonthis.mapper;
 
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.chat.allchatonthis.entity.dataobject.ConversationDO;
 import com.chat.allchatonthis.config.mybatis.core.mapper.BaseMapperX;
 import org.apache.ibatis.annotations.Mapper;
 
+import java.util.Collection;
+import java.util.List;
+
 @Mapper
 public interface ConversationMapper extends BaseMapperX<ConversationDO> {
-} 
\ No newline at end of file
+
+    /**
+     * Reads the titles of a user's conversations, for the search index
+     *
+     * @param userId The user ID
+     * @return The conversations with only their ID and title
+     */
+    default List<ConversationDO> selectTitlesByUserId(Long userId) {
+        return selectList(new LambdaQueryWrapper<ConversationDO>()
+                .select(ConversationDO::getId, ConversationDO::getTitle)
+                .eq(ConversationDO::getUserId, userId));
+    }
+
+    /**
+     * Reads the title of a conversation, for the search index
+     *
+     * @param id The conversation ID
+     * @return The conversation with only its ID and title, null if it does not exist
+     */
+    default ConversationDO selectTitleById(Long id) {
+        return selectOne(new LambdaQueryWrapper<ConversationDO>()
+                .select(ConversationDO::getId, ConversationDO::getTitle)
+                .eq(ConversationDO::getId, id));
+    }
+
+    /**
+     * Reads the update times of some of a user's conversations, for ordering search results
+     *
+     * @param userId The user ID
+     * @param ids    The conversation IDs
+     * @return The conversations of the user among them, with only their ID and update time
+     */
+    default List<ConversationDO> selectUpdateTimesByIds(Long userId, Collection<Long> ids) {
+        return selectList(new LambdaQueryWrapper<ConversationDO>()
+                .select(ConversationDO::getId, ConversationDO::getUpdateTime)
+                .eq(ConversationDO::getUserId, userId)
+                .in(ConversationDO::getId, ids));
+    }
+}
@@ -1,9 +1,83 @@
 package com.chat.allchatonthis.mapper;
 
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
 import com.chat.allchatonthis.config.mybatis.core.mapper.BaseMapperX;
+import com.chat.allchatonthis.config.mybatis.core.query.LambdaQueryWrapperX;
+import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Collection;
+import java.util.List;
 
 @Mapper
 public interface ConversationMessageMapper extends BaseMapperX<ConversationMessageDO> {
-} 
\ No newline at end of file
+
+    /**
+     * Reads a conversation's messages backwards, newest first
+     *
+     * @param conversationId The conversation ID
+     * @param beforeId       Only messages with a smaller ID are returned, null to start at the newest message
+     * @param limit          Maximum number of messages
+     * @return The messages, newest first
+     */
+    default List<ConversationMessageDO> selectListBefore(Long conversationId, Long beforeId, int limit) {
+        return selectList(new LambdaQueryWrapperX<ConversationMessageDO>()
+                .eq(ConversationMessageDO::getConversationId, conversationId)
+                .ltIfPresent(ConversationMessageDO::getId, beforeId)
+                .orderByDesc(ConversationMessageDO::getId)
+                .last("LIMIT " + limit));
+    }
+
+    /**
+     * Finds the end of the next batch of a conversation's messages to purge, deleted ones included
+     *
+     * @param conversationId The conversation ID
+     * @param afterId        The batch starts after this message ID
+     * @param limit          Maximum number of messages in the batch
+     * @return The greatest message ID of the batch, null when no message is left
+     */
+    @Select("SELECT MAX(id) FROM (SELECT id FROM conversation_message" +
+            " WHERE conversation_id = #{conversationId} AND id > #{afterId} ORDER BY id LIMIT #{limit}) batch")
+    Long selectPurgeBatchEnd(@Param("conversationId") Long conversationId, @Param("afterId") Long afterId,
+                             @Param("limit") int limit);
+
+    /**
+     * Physically deletes a range of a conversation's messages, bypassing the logical delete
+     *
+     * @param conversationId The conversation ID
+     * @param afterId        The range starts after this message ID
+     * @param toId           The range ends with this message ID
+     * @return The number of rows deleted
+     */
+    @Delete("DELETE FROM conversation_message" +
+            " WHERE conversation_id = #{conversationId} AND id > #{afterId} AND id <= #{toId}")
+    int deletePhysicallyInRange(@Param("conversationId") Long conversationId, @Param("afterId") Long afterId,
+                                @Param("toId") Long toId);
+
+    /**
+     * Reads the contents of the messages of some conversations, for the search index
+     *
+     * @param conversationIds The conversation IDs
+     * @return The messages with only their ID, conversation ID and content
+     */
+    default List<ConversationMessageDO> selectContentsByConversationIds(Collection<Long> conversationIds) {
+        return selectList(new LambdaQueryWrapper<ConversationMessageDO>()
+                .select(ConversationMessageDO::getId, ConversationMessageDO::getConversationId, ConversationMessageDO::getContent)
+                .in(ConversationMessageDO::getConversationId, conversationIds));
+    }
+
+    /**
+     * Reads the contents of some messages, for the search index
+     *
+     * @param ids The message IDs
+     * @return The messages still existing among them, with only their ID, conversation ID and content
+     */
+    default List<ConversationMessageDO> selectContentsByIds(Collection<Long> ids) {
+        return selectList(new LambdaQueryWrapper<ConversationMessageDO>()
+                .select(ConversationMessageDO::getId, ConversationMessageDO::getConversationId, ConversationMessageDO::getContent)
+                .in(ConversationMessageDO::getId, ids));
+    }
+}
@@ -64,4 +64,12 @@ public interface AuthService {
      * @return true if logout successful
      */
     boolean logout(String token);
+
+    /**
+     * Logout the user from every device, revoking all tokens issued to them so far
+     *
+     * @param token JWT token of the user
+     * @return true if logout successful
+     */
+    boolean logoutAll(String token);
 } 
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.chat.allchatonthis.service.auth.impl;
 import com.chat.allchatonthis.common.exception.ServiceException;
 import com.chat.allchatonthis.common.util.token.JwtUtils;
 import com.chat.allchatonthis.config.security.model.LoginUser;
+import com.chat.allchatonthis.config.security.service.TokenRevocationService;
 import com.chat.allchatonthis.entity.dataobject.UserDO;
 import com.chat.allchatonthis.entity.vo.user.UserInfomationVO;
 import com.chat.allchatonthis.enums.SocialTypeEnum;
@@ -11,6 +12,7 @@ import com.chat.allchatonthis.service.core.UserConfigService;
 import com.chat.allchatonthis.service.core.UserService;
 import com.chat.allchatonthis.service.social.SocialClientService;
 import com.xingyuv.jushauth.model.AuthUser;
+import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -41,6 +43,7 @@ public class AuthServiceImpl implements AuthService {
     private final SocialClientService socialClientService;
     private final PasswordEncoder passwordEncoder;
     private final UserConfigService userConfigService;
+    private final TokenRevocationService tokenRevocationService;
 
     @Value("${jwt.expiration:86400000}")
     private long expiration;
@@ -75,7 +78,8 @@ public class AuthServiceImpl implements AuthService {
 
         // Generate JWT token
         LoginUser userDetails = (LoginUser) authentication.getPrincipal();
-        String jwt = jwtUtils.generateToken(userDetails.getUsername(), userDetails.getUserId(), userDetails.getLoginType());
+        String jwt = jwtUtils.generateToken(userDetails.getUsername(), userDetails.getUserId(), userDetails.getLoginType(),
+                tokenRevocationService.currentVersion(userDetails.getUserId()));
 
         // Return login response
         return createLoginResponse(userDetails, jwt, false);
@@ -110,7 +114,8 @@ public class AuthServiceImpl implements AuthService {
         userConfigService.createDefaultConfig(user.getId());
 
         // Generate JWT token
-        String jwt = jwtUtils.generateToken(user.getUsername(), user.getId(), user.getLoginType());
+        String jwt = jwtUtils.generateToken(user.getUsername(), user.getId(), user.getLoginType(),
+                tokenRevocationService.currentVersion(user.getId()));
 
         // Convert to LoginUser and create response
         LoginUser loginUser = convertToLoginUser(user);
@@ -149,7 +154,8 @@ public class AuthServiceImpl implements AuthService {
         }
 
         // Generate JWT token
-        String jwt = jwtUtils.generateToken(user.getUsername(), user.getId(), user.getLoginType());
+        String jwt = jwtUtils.generateToken(user.getUsername(), user.getId(), user.getLoginType(),
+                tokenRevocationService.currentVersion(user.getId()));
 
         // Convert to LoginUser and create response
         LoginUser loginUser = convertToLoginUser(user);
@@ -198,7 +204,8 @@ public class AuthServiceImpl implements AuthService {
     @Override
     public boolean validateToken(String token) {
         try {
-            return !jwtUtils.isTokenExpired(token);
+            // Parsing rejects expired tokens
+            return !tokenRevocationService.isRevoked(jwtUtils.parseClaims(token));
         } catch (Exception e) {
             return false;
         }
@@ -213,8 +220,10 @@ public class AuthServiceImpl implements AuthService {
         }
 
         try {
-            // Get username from token
-            String username = jwtUtils.extractUsername(token);
+            // Revoke the token on every node, it would otherwise stay valid until it expires
+            Claims claims = jwtUtils.parseClaims(token);
+            tokenRevocationService.revoke(claims);
+            String username = claims.getSubject();
 
             // Clear SecurityContext if this user is currently logged in
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -229,6 +238,29 @@ public class AuthServiceImpl implements AuthService {
         }
     }
 
+    @Override
+    public boolean logoutAll(String token) {
+        if (!validateToken(token)) {
+            return false;
+        }
+
+        try {
+            Claims claims = jwtUtils.parseClaims(token);
+            Long userId = claims.get("userId", Long.class);
+            if (userId == null) {
+                // Tokens without a userId claim predate versions, revoke this one at least
+                tokenRevocationService.revoke(claims);
+            } else {
+                tokenRevocationService.revokeAll(userId);
+            }
+            SecurityContextHolder.clearContext();
+            return true;
+        } catch (Exception e) {
+            log.error("Error during logout of all sessions: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+
     /**
      * Create a new user from social login
      */
@@ -1,7 +1,10 @@
 package com.chat.allchatonthis.service.core;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.chat.allchatonthis.common.pojo.CursorPageParam;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
 import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -16,6 +19,38 @@ public interface ConversationMessageService extends IService<ConversationMessage
      */
     List<ConversationMessageDO> getMessages(Long conversationId, Long userId);
 
+    /**
+     * Get the messages of a conversation newer than a given message, for clients syncing incrementally
+     * <p>
+     * Only messages added after the given one are returned: edits and deletions are not, clients refresh the
+     * full list after those (see {@link #getMessagesVersion(Long, Long)})
+     *
+     * @param conversationId The conversation ID
+     * @param userId         User ID for security check
+     * @param afterId        The ID of the newest message the client has, null for all messages
+     * @return The newer messages in order
+     */
+    List<ConversationMessageDO> getMessagesAfter(Long conversationId, Long userId, Long afterId);
+
+    /**
+     * Get the version of a conversation's messages, which changes with every write to them
+     *
+     * @param conversationId The conversation ID
+     * @param userId         User ID for security check
+     * @return The version, or -1 if it is unavailable
+     */
+    long getMessagesVersion(Long conversationId, Long userId);
+
+    /**
+     * Get the messages of a conversation with cursor pagination, newest first
+     *
+     * @param conversationId The conversation ID
+     * @param userId         User ID for security check
+     * @param pageParam      Cursor pagination parameters
+     * @return A page of messages with the cursor of the next (older) page
+     */
+    CursorPageResult<ConversationMessageDO> getMessageCursorPage(Long conversationId, Long userId, CursorPageParam pageParam);
+
     /**
      * Get a specific message by ID
      *
@@ -37,6 +72,28 @@ public interface ConversationMessageService extends IService<ConversationMessage
      */
     ConversationMessageDO sendMessage(String userMessage, Long configId, Long conversationId, Long userId, String secretKey);
 
+    /**
+     * Send a message and stream the response back as Server-Sent Events
+     * <p>
+     * The upstream API is called with streaming enabled and every content or thinking delta is
+     * relayed to the client as soon as it arrives. Both messages are persisted once the upstream
+     * stream has finished.
+     * <p>
+     * Events, all with a JSON payload:
+     * - thinking: {"delta": "..."}, the next piece of the reasoning text
+     * - content: {"delta": "..."}, the next piece of the response text
+     * - done: the saved assistant message, ending the stream
+     * - error: a CommonResult with the error code and message, ending the stream
+     *
+     * @param userMessage    The user message
+     * @param configId       The configuration ID
+     * @param conversationId The conversation ID
+     * @param userId         The user ID
+     * @param secretKey      The secret key for API key decryption (optional)
+     * @return The emitter the response events are written to
+     */
+    SseEmitter sendMessageStream(String userMessage, Long configId, Long conversationId, Long userId, String secretKey);
+
     /**
      * Rename a message and generate a new AI response if it's a user message
      *
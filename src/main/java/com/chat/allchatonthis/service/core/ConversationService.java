@@ -1,9 +1,11 @@
 package com.chat.allchatonthis.service.core;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
 import com.chat.allchatonthis.common.pojo.PageParam;
 import com.chat.allchatonthis.common.pojo.PageResult;
 import com.chat.allchatonthis.entity.dataobject.ConversationDO;
+import com.chat.allchatonthis.entity.vo.conversation.ConversationCursorPageReqVO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationPageReqVO;
 
 import java.util.List;
@@ -26,6 +28,15 @@ public interface ConversationService extends IService<ConversationDO> {
      * @return Paginated list of conversations
      */
     PageResult<ConversationDO> getConversationPage(Long userId, ConversationPageReqVO conversationPageReqVO);
+
+    /**
+     * Get conversations for the current user with cursor pagination, most recently updated first
+     *
+     * @param userId The user ID
+     * @param conversationCursorPageReqVO Cursor pagination parameters
+     * @return A page of conversations with the cursor of the next page
+     */
+    CursorPageResult<ConversationDO> getConversationCursorPage(Long userId, ConversationCursorPageReqVO conversationCursorPageReqVO);
     
     /**
      * Get a specific conversation by ID
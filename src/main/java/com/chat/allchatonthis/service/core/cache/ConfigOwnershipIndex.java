@@ -0,0 +1,101 @@
+package com.chat.allchatonthis.service.core.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
+import com.chat.allchatonthis.mapper.UserConfigMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owner of each configuration, so its cache entries can be evicted by key
+ * <p>
+ * The user_config cache is keyed by user: "id:{configId}:user:{userId}" and "list:{userId}". Code that only
+ * knows the configuration ID looks the owner up here instead of clearing the whole cache.
+ * <p>
+ * A configuration never changes owner and IDs are not reused, so entries never go stale. Lookups go through a
+ * local map, then a Redis hash shared by all nodes, then the database; the last two fill the levels above them.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConfigOwnershipIndex {
+
+    private static final String KEY = "acot_config_owner";
+
+    private static final long MAX_LOCAL_ENTRIES = 100_000;
+
+    private final UserConfigMapper userConfigMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Cache<Long, Long> owners = Caffeine.newBuilder()
+            .maximumSize(MAX_LOCAL_ENTRIES)
+            .build();
+
+    /**
+     * Record the owner of a created configuration
+     *
+     * @param configId The configuration ID
+     * @param userId   The owner
+     */
+    public void record(Long configId, Long userId) {
+        owners.put(configId, userId);
+        try {
+            stringRedisTemplate.opsForHash().put(KEY, configId.toString(), userId.toString());
+        } catch (Exception e) {
+            // Other nodes fall back to the database
+            log.error("Failed to record the owner of configuration {}: {}", configId, e.getMessage());
+        }
+    }
+
+    /**
+     * Find the owner of a configuration
+     *
+     * @param configId The configuration ID
+     * @return The owner, or null if the configuration does not exist
+     */
+    public Long getOwner(Long configId) {
+        Long userId = owners.getIfPresent(configId);
+        if (userId != null) {
+            return userId;
+        }
+
+        try {
+            Object cached = stringRedisTemplate.opsForHash().get(KEY, configId.toString());
+            if (cached != null) {
+                userId = Long.valueOf((String) cached);
+                owners.put(configId, userId);
+                return userId;
+            }
+        } catch (Exception e) {
+            log.error("Failed to read the owner of configuration {}, reading the database: {}", configId, e.getMessage());
+        }
+
+        UserConfigDO config = userConfigMapper.selectOne(new LambdaQueryWrapper<UserConfigDO>()
+                .select(UserConfigDO::getId, UserConfigDO::getUserId)
+                .eq(UserConfigDO::getId, configId));
+        if (config == null) {
+            return null;
+        }
+        record(configId, config.getUserId());
+        return config.getUserId();
+    }
+
+    /**
+     * Forget a deleted configuration
+     *
+     * @param configId The configuration ID
+     */
+    public void remove(Long configId) {
+        owners.invalidate(configId);
+        try {
+            stringRedisTemplate.opsForHash().delete(KEY, configId.toString());
+        } catch (Exception e) {
+            // Harmless: the entry only keeps pointing at the former owner
+            log.error("Failed to remove the owner of configuration {}: {}", configId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.chat.allchatonthis.service.core.cache;
+
+import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache of the message history of each conversation, stored as a Redis list
+ * <p>
+ * Unlike a cached whole list, the Redis list is updated in place: sending appends the new messages,
+ * editing or deleting rewrites the tail from the changed message on. After normal chat activity the
+ * history never has to be reloaded from the database or re-serialized as a whole.
+ * <p>
+ * Layout, with the conversation ID as hash tag so both keys live in the same cluster slot:
+ * - acot_message_list:{id}: a head marker followed by the messages in order. The marker tells an
+ * empty conversation apart from a missing list.
+ * - acot_message_list:{id}:version: incremented by every write, so a reader that loaded the history
+ * before a concurrent write does not store a stale list. It also serves as the ETag of the history: a missing
+ * counter starts from the Redis server time in microseconds, so it keeps growing across expiry and
+ * invalidation and a version is never handed out twice for different histories.
+ * <p>
+ * Writes only update a list that is already cached, a missing list is loaded on the next read.
+ */
+@Slf4j
+@Component
+public class ConversationMessageCache {
+
+    private static final String KEY_PREFIX = "acot_message_list:{";
+    private static final String LIST_SUFFIX = "}";
+    private static final String VERSION_SUFFIX = "}:version";
+
+    /**
+     * First element of every cached list
+     */
+    private static final String HEAD_MARKER = "__head__";
+
+    private static final Duration TTL = Duration.ofMinutes(30);
+
+    /**
+     * Lua snippet initializing a missing version counter (KEYS[2]) from the server time in microseconds
+     */
+    private static final String INIT_VERSION = """
+            if redis.call('EXISTS', KEYS[2]) == 0 then
+                local time = redis.call('TIME')
+                redis.call('SET', KEYS[2], time[1] .. string.format('%06d', tonumber(time[2])))
+            end
+            """;
+
+    /**
+     * Returns the version, initializing it if missing.
+     * KEYS: list, version. ARGV: ttl millis
+     */
+    private static final RedisScript<Long> VERSION_SCRIPT = new DefaultRedisScript<>(INIT_VERSION + """
+            redis.call('PEXPIRE', KEYS[2], ARGV[1])
+            return redis.call('GET', KEYS[2])
+            """, Long.class);
+
+    /**
+     * Replaces the list, unless a write happened since the reader took its version.
+     * Elements are pushed in chunks to stay below Lua's unpack limit.
+     * KEYS: list, version. ARGV: ttl millis, expected version, head marker, messages...
+     */
+    private static final RedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>("""
+            local version = redis.call('GET', KEYS[2]) or '0'
+            if version ~= ARGV[2] then
+                return 0
+            end
+            redis.call('DEL', KEYS[1])
+            for i = 3, #ARGV, 1000 do
+                redis.call('RPUSH', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            return 1
+            """, Long.class);
+
+    /**
+     * Keeps the first elements of the list and pushes a new tail after them.
+     * The list is dropped instead if its size differs from what the caller based the patch on.
+     * Nothing is pushed if the last cached message has an ID from the given first new ID on: a reader that
+     * loaded the history after the writer committed, but before this patch moved the version, cached it already.
+     * KEYS: list, version. ARGV: ttl millis, expected size (-1 to skip the check), elements to keep (-1 to keep all),
+     * first new message ID (-1 to skip the check), tail...
+     */
+    private static final RedisScript<Long> PATCH_SCRIPT = new DefaultRedisScript<>(INIT_VERSION + """
+            redis.call('INCR', KEYS[2])
+            redis.call('PEXPIRE', KEYS[2], ARGV[1])
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return 0
+            end
+            local expected = tonumber(ARGV[2])
+            if expected >= 0 and redis.call('LLEN', KEYS[1]) ~= expected then
+                redis.call('DEL', KEYS[1])
+                return -1
+            end
+            local firstId = tonumber(ARGV[4])
+            if firstId >= 0 then
+                -- Messages are stored as [class name, fields], the head marker as a plain string
+                local ok, last = pcall(cjson.decode, redis.call('LINDEX', KEYS[1], -1))
+                if ok and type(last) == 'table' and type(last[2]) == 'table'
+                        and tonumber(last[2].id) and tonumber(last[2].id) >= firstId then
+                    redis.call('PEXPIRE', KEYS[1], ARGV[1])
+                    return 2
+                end
+            end
+            local keep = tonumber(ARGV[3])
+            if keep >= 0 then
+                redis.call('LTRIM', KEYS[1], 0, keep - 1)
+            end
+            for i = 5, #ARGV, 1000 do
+                redis.call('RPUSH', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * Serializes script arguments: numbers as plain text for Lua, everything else like the template's values
+     */
+    private final RedisSerializer<Object> argsSerializer;
+
+    @SuppressWarnings("unchecked")
+    public ConversationMessageCache(RedisTemplate<String, Object> redisTemplate, StringRedisTemplate stringRedisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        this.argsSerializer = new RedisSerializer<>() {
+            @Override
+            public byte[] serialize(Object value) {
+                if (value instanceof Number) {
+                    return value.toString().getBytes(StandardCharsets.UTF_8);
+                }
+                return valueSerializer.serialize(value);
+            }
+
+            @Override
+            public Object deserialize(byte[] bytes) {
+                return valueSerializer.deserialize(bytes);
+            }
+        };
+    }
+
+    /**
+     * Returns the cached history of a conversation
+     *
+     * @param conversationId The conversation ID
+     * @return The messages in order, or null if the history is not cached
+     */
+    public List<ConversationMessageDO> get(Long conversationId) {
+        List<Object> elements;
+        try {
+            elements = redisTemplate.opsForList().range(listKey(conversationId), 0, -1);
+        } catch (Exception e) {
+            // Degrade to the database when Redis is unavailable
+            log.error("Failed to read cached history of conversation {}: {}", conversationId, e.getMessage());
+            return null;
+        }
+        if (elements == null || elements.isEmpty() || !HEAD_MARKER.equals(elements.get(0))) {
+            return null;
+        }
+
+        List<ConversationMessageDO> messages = new ArrayList<>(elements.size() - 1);
+        for (int i = 1; i < elements.size(); i++) {
+            messages.add((ConversationMessageDO) elements.get(i));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the current write version of a conversation, to be passed to {@link #load} or used as the ETag
+     * of its history
+     *
+     * @param conversationId The conversation ID
+     * @return The version, -1 if it could not be read
+     */
+    public long version(Long conversationId) {
+        try {
+            // Written by the scripts as a plain counter, so run without the value serializer
+            Long version = stringRedisTemplate.execute(VERSION_SCRIPT,
+                    List.of(listKey(conversationId), versionKey(conversationId)), String.valueOf(TTL.toMillis()));
+            return version != null ? version : -1L;
+        } catch (Exception e) {
+            log.error("Failed to read history version of conversation {}: {}", conversationId, e.getMessage());
+            return -1L;
+        }
+    }
+
+    /**
+     * Caches the history loaded from the database
+     *
+     * @param conversationId The conversation ID
+     * @param version        The version read before loading the history from the database
+     * @param messages       The messages in order
+     */
+    public void load(Long conversationId, long version, List<ConversationMessageDO> messages) {
+        if (version < 0) {
+            return;
+        }
+        List<Object> args = new ArrayList<>(messages.size() + 3);
+        args.add(TTL.toMillis());
+        args.add(version);
+        args.add(HEAD_MARKER);
+        args.addAll(messages);
+        Long loaded = execute(LOAD_SCRIPT, conversationId, args);
+        if (loaded != null && loaded == 0) {
+            log.debug("Skipped caching history of conversation {}, it changed while loading", conversationId);
+        }
+    }
+
+    /**
+     * Appends new messages to the cached history, unless it holds them already
+     *
+     * @param conversationId The conversation ID
+     * @param messages       The new messages in order, with their IDs
+     */
+    public void append(Long conversationId, List<ConversationMessageDO> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Long firstId = messages.get(0).getId();
+        patch(conversationId, -1, -1, firstId != null ? firstId : -1L, messages);
+    }
+
+    /**
+     * Replaces the cached history from a position on
+     *
+     * @param conversationId The conversation ID
+     * @param expectedSize   The number of messages the caller saw, the list is dropped if it differs
+     * @param keep           The number of leading messages to keep
+     * @param tail           The messages following the kept ones
+     */
+    public void replaceTail(Long conversationId, int expectedSize, int keep, List<ConversationMessageDO> tail) {
+        // The head marker is the first element of the list
+        patch(conversationId, expectedSize + 1, keep + 1, -1L, tail);
+    }
+
+    /**
+     * Drops the cached history, the next read loads it from the database
+     *
+     * @param conversationId The conversation ID
+     */
+    public void invalidate(Long conversationId) {
+        redisTemplate.delete(List.of(listKey(conversationId), versionKey(conversationId)));
+    }
+
+    private void patch(Long conversationId, int expectedSize, int keep, long firstId, List<ConversationMessageDO> tail) {
+        List<Object> args = new ArrayList<>(tail.size() + 4);
+        args.add(TTL.toMillis());
+        args.add(expectedSize);
+        args.add(keep);
+        args.add(firstId);
+        args.addAll(tail);
+        Long patched = execute(PATCH_SCRIPT, conversationId, args);
+        if (patched != null && patched < 0) {
+            log.debug("Dropped cached history of conversation {}, it changed concurrently", conversationId);
+        } else if (patched != null && patched == 2) {
+            log.debug("Skipped appending to cached history of conversation {}, it holds the messages already", conversationId);
+        }
+    }
+
+    private Long execute(RedisScript<Long> script, Long conversationId, List<Object> args) {
+        try {
+            return redisTemplate.execute(script, argsSerializer, new GenericToStringSerializer<>(Long.class),
+                    List.of(listKey(conversationId), versionKey(conversationId)), args.toArray());
+        } catch (Exception e) {
+            // A history that cannot be patched must not be served anymore
+            log.error("Failed to update cached history of conversation {}: {}", conversationId, e.getMessage());
+            try {
+                invalidate(conversationId);
+            } catch (Exception ignored) {
+                // Redis is unavailable, the list expires through its TTL
+            }
+            return null;
+        }
+    }
+
+    private static String listKey(Long conversationId) {
+        return KEY_PREFIX + conversationId + LIST_SUFFIX;
+    }
+
+    private static String versionKey(Long conversationId) {
+        return KEY_PREFIX + conversationId + VERSION_SUFFIX;
+    }
+}
@@ -0,0 +1,140 @@
+package com.chat.allchatonthis.service.core.context;
+
+import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Selects the part of a conversation's history that is sent to the upstream provider
+ * <p>
+ * Walks the history from the newest message backwards and keeps messages while they fit into the
+ * configuration's token budget. The request template and the new user message are always sent, so
+ * their tokens are reserved up front. Messages with the "system" role are never sent upstream (see
+ * {@link com.chat.allchatonthis.common.util.http.HttpUtils#prepareRequestData}) and are left out.
+ */
+public final class ContextWindowBuilder {
+
+    /**
+     * Token budget for configurations without their own contextTokenBudget
+     */
+    public static final int DEFAULT_TOKEN_BUDGET = 32_000;
+
+    /**
+     * Number of messages read per database round trip while walking back through the history
+     */
+    public static final int BATCH_SIZE = 20;
+
+    private ContextWindowBuilder() {
+    }
+
+    /**
+     * Selects the newest messages that fit the configuration's token budget
+     *
+     * @param config      The configuration, providing the budget and the request template
+     * @param userMessage The new user message
+     * @param newestFirst The history, newest message first
+     * @return The selected messages, oldest first
+     */
+    public static List<ConversationMessageDO> build(UserConfigDO config,
+                                                    String userMessage,
+                                                    Iterator<ConversationMessageDO> newestFirst) {
+        int remaining = budgetOf(config)
+                - TokenEstimator.estimate(JsonUtils.toJsonString(config.getRequestTemplate()))
+                - TokenEstimator.estimateMessage(userMessage);
+
+        List<ConversationMessageDO> window = new ArrayList<>();
+        while (newestFirst.hasNext()) {
+            ConversationMessageDO message = newestFirst.next();
+            if ("system".equals(message.getRole())) {
+                continue;
+            }
+
+            remaining -= TokenEstimator.estimateMessage(message.getContent());
+            if (remaining < 0) {
+                break;
+            }
+            window.add(message);
+        }
+
+        Collections.reverse(window);
+
+        // Start the window at a user turn, a leading orphaned assistant reply confuses some providers
+        while (!window.isEmpty() && !"user".equals(window.get(0).getRole())) {
+            window.remove(0);
+        }
+        return window;
+    }
+
+    /**
+     * Iterates an in-memory history from its newest message
+     *
+     * @param messages The history, oldest first
+     * @return An iterator starting at the newest message
+     */
+    public static Iterator<ConversationMessageDO> newestFirst(List<ConversationMessageDO> messages) {
+        return new Iterator<>() {
+            private int index = messages.size() - 1;
+
+            @Override
+            public boolean hasNext() {
+                return index >= 0;
+            }
+
+            @Override
+            public ConversationMessageDO next() {
+                if (index < 0) {
+                    throw new NoSuchElementException();
+                }
+                return messages.get(index--);
+            }
+        };
+    }
+
+    /**
+     * Iterates a history from its newest message, reading it lazily in batches
+     *
+     * @param olderThan Loads up to {@link #BATCH_SIZE} messages older than the given message ID
+     *                  (null for the newest ones), newest first
+     * @return An iterator starting at the newest message
+     */
+    public static Iterator<ConversationMessageDO> newestFirst(Function<Long, List<ConversationMessageDO>> olderThan) {
+        return new Iterator<>() {
+            private List<ConversationMessageDO> batch = olderThan.apply(null);
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (index < batch.size()) {
+                    return true;
+                }
+                // A short batch means the start of the conversation was reached
+                if (batch.size() < BATCH_SIZE) {
+                    return false;
+                }
+                batch = olderThan.apply(batch.get(batch.size() - 1).getId());
+                index = 0;
+                return !batch.isEmpty();
+            }
+
+            @Override
+            public ConversationMessageDO next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(index++);
+            }
+        };
+    }
+
+    private static int budgetOf(UserConfigDO config) {
+        Integer budget = config.getContextTokenBudget();
+        return budget != null && budget > 0 ? budget : DEFAULT_TOKEN_BUDGET;
+    }
+}
@@ -0,0 +1,66 @@
+package com.chat.allchatonthis.service.core.context;
+
+/**
+ * Heuristic token counter for sizing the history sent to upstream providers
+ * <p>
+ * Providers use different tokenizers, so an exact count is not possible without knowing the model.
+ * The estimate errs on the high side: CJK characters count as one token each, other text as one token
+ * per three characters (BPE tokenizers average close to four for English), plus a fixed overhead per message
+ * for the role and the message framing.
+ */
+public final class TokenEstimator {
+
+    /**
+     * Tokens added per message for the role and the message framing
+     */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private static final int CHARS_PER_TOKEN = 3;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * Estimates the tokens of a text
+     *
+     * @param text The text, may be null
+     * @return The estimated number of tokens
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        int wideChars = 0;
+        int otherChars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isWide(c)) {
+                wideChars++;
+            } else {
+                otherChars++;
+            }
+        }
+        return wideChars + (otherChars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Estimates the tokens of a chat message including its framing
+     *
+     * @param content The message content, may be null
+     * @return The estimated number of tokens
+     */
+    public static int estimateMessage(CharSequence content) {
+        return MESSAGE_OVERHEAD + estimate(content);
+    }
+
+    /**
+     * CJK ideographs, kana, hangul and fullwidth forms usually take a token each
+     */
+    private static boolean isWide(char c) {
+        return (c >= '⺀' && c <= '鿿')
+                || (c >= '가' && c <= '힯')
+                || (c >= '豈' && c <= '﫿')
+                || (c >= '＀' && c <= '￯');
+    }
+}
@@ -3,28 +3,53 @@ package com.chat.allchatonthis.service.core.impl;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.chat.allchatonthis.common.exception.ServiceException;
+import com.chat.allchatonthis.common.pojo.CommonResult;
+import com.chat.allchatonthis.common.pojo.CursorPageParam;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
+import com.chat.allchatonthis.common.pojo.PageCursor;
 import com.chat.allchatonthis.common.util.http.HttpUtils;
+import com.chat.allchatonthis.common.util.json.CompiledJsonPath;
 import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.chat.allchatonthis.common.util.object.BeanUtils;
+import com.chat.allchatonthis.common.util.object.PageUtils;
+import com.chat.allchatonthis.config.upstream.UpstreamHttpClient;
+import com.chat.allchatonthis.config.upstream.UpstreamMetrics;
 import com.chat.allchatonthis.entity.dataobject.ConversationDO;
 import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
 import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
+import com.chat.allchatonthis.entity.vo.conversation.ConversationMessageRespVO;
 import com.chat.allchatonthis.mapper.ConversationMessageMapper;
+import com.chat.allchatonthis.service.core.cache.ConversationMessageCache;
+import com.chat.allchatonthis.service.core.context.ContextWindowBuilder;
+import com.chat.allchatonthis.service.core.search.ConversationSearchIndex;
+import com.chat.allchatonthis.service.core.touch.TouchBuffer;
 import com.chat.allchatonthis.service.core.ConversationMessageService;
 import com.chat.allchatonthis.service.core.ConversationService;
 import com.chat.allchatonthis.service.core.UserConfigService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.cache.annotation.Caching;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.*;
 
@@ -34,12 +59,40 @@ import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.*;
 @CacheConfig(cacheNames = "conversation_message")
 public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMessageMapper, ConversationMessageDO> implements ConversationMessageService {
 
+    /**
+     * Maximum time a streamed generation may keep the SSE connection open
+     */
+    private static final long STREAM_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * Prefix of the data lines in a Server-Sent Events stream
+     */
+    private static final String SSE_DATA_PREFIX = "data:";
+
+    /**
+     * Marker sent by OpenAI-compatible providers to terminate a stream
+     */
+    private static final String SSE_DONE_MARKER = "[DONE]";
+
+    /**
+     * Token usage as reported by OpenAI-compatible providers, in the response body or the last stream chunk
+     */
+    private static final CompiledJsonPath PROMPT_TOKENS_PATH = CompiledJsonPath.of("usage.prompt_tokens");
+    private static final CompiledJsonPath COMPLETION_TOKENS_PATH = CompiledJsonPath.of("usage.completion_tokens");
+
     private final ConversationService conversationService;
     private final UserConfigService userConfigService;
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final ConversationMessageCache conversationMessageCache;
+    private final ConversationSearchIndex conversationSearchIndex;
+    private final TouchBuffer touchBuffer;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final UpstreamHttpClient upstreamHttpClient;
+    private final UpstreamMetrics upstreamMetrics;
+    // Resolved by name, see AsyncConfiguration.MESSAGE_STREAM_EXECUTOR
+    private final TaskExecutor messageStreamExecutor;
 
     @Override
-    @Cacheable(key = "'conversation:' + #conversationId + ':user:' + #userId")
     public List<ConversationMessageDO> getMessages(Long conversationId, Long userId) {
         // Validate that the conversation belongs to the user
         ConversationDO conversation = conversationService.getConversation(conversationId, userId);
@@ -47,15 +100,70 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
             throw new ServiceException(CONVERSATION_NOT_EXISTS.getCode(), CONVERSATION_NOT_EXISTS.getMsg());
         }
 
+        return getHistory(conversationId);
+    }
+
+    @Override
+    public List<ConversationMessageDO> getMessagesAfter(Long conversationId, Long userId, Long afterId) {
+        if (afterId == null) {
+            return getMessages(conversationId, userId);
+        }
+        // Validate that the conversation belongs to the user
+        ConversationDO conversation = conversationService.getConversation(conversationId, userId);
+        if (conversation == null) {
+            throw new ServiceException(CONVERSATION_NOT_EXISTS.getCode(), CONVERSATION_NOT_EXISTS.getMsg());
+        }
+
+        // A range on the (conversation_id, id) index, usually the last exchange only; reading the cached
+        // history would deserialize the whole conversation for it
         return list(new LambdaQueryWrapper<ConversationMessageDO>()
                 .eq(ConversationMessageDO::getConversationId, conversationId)
+                .gt(ConversationMessageDO::getId, afterId)
                 .orderByAsc(ConversationMessageDO::getCreateTime)
                 .orderByAsc(ConversationMessageDO::getId)
         );
     }
 
     @Override
-    @Cacheable(key = "'id:' + #id + ':user:' + #userId")
+    public long getMessagesVersion(Long conversationId, Long userId) {
+        // Validate that the conversation belongs to the user
+        ConversationDO conversation = conversationService.getConversation(conversationId, userId);
+        if (conversation == null) {
+            throw new ServiceException(CONVERSATION_NOT_EXISTS.getCode(), CONVERSATION_NOT_EXISTS.getMsg());
+        }
+
+        return conversationMessageCache.version(conversationId);
+    }
+
+    @Override
+    public CursorPageResult<ConversationMessageDO> getMessageCursorPage(Long conversationId, Long userId, CursorPageParam pageParam) {
+        // Validate that the conversation belongs to the user
+        ConversationDO conversation = conversationService.getConversation(conversationId, userId);
+        if (conversation == null) {
+            throw new ServiceException(CONVERSATION_NOT_EXISTS.getCode(), CONVERSATION_NOT_EXISTS.getMsg());
+        }
+
+        LambdaQueryWrapper<ConversationMessageDO> queryWrapper = new LambdaQueryWrapper<ConversationMessageDO>()
+                .eq(ConversationMessageDO::getConversationId, conversationId);
+        Long total = Boolean.TRUE.equals(pageParam.getWithTotal()) ? count(queryWrapper) : null;
+
+        // Each page continues before the oldest message of the previous one, an index range scan on
+        // (conversation_id, create_time, id) however far back the client scrolls
+        PageCursor cursor = PageCursor.decode(pageParam.getCursor());
+        if (cursor != null) {
+            queryWrapper.and(w -> w.lt(ConversationMessageDO::getCreateTime, cursor.time())
+                    .or(o -> o.eq(ConversationMessageDO::getCreateTime, cursor.time()).lt(ConversationMessageDO::getId, cursor.id())));
+        }
+        queryWrapper.orderByDesc(ConversationMessageDO::getCreateTime)
+                .orderByDesc(ConversationMessageDO::getId)
+                .last(PageUtils.buildCursorLimit(pageParam));
+
+        return PageUtils.buildCursorPageResult(list(queryWrapper), pageParam,
+                message -> new PageCursor(message.getCreateTime(), message.getId()), total);
+    }
+
+    @Override
+    @Cacheable(key = "'id:' + #id + ':user:' + #userId", sync = true)
     public ConversationMessageDO getMessage(Long id, Long userId) {
         ConversationMessageDO message = getById(id);
         if (message == null) {
@@ -72,11 +180,11 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
     }
 
     @Override
-    @Transactional
-    @Caching(evict = {
-            @CacheEvict(key = "'conversation:' + #conversationId + ':user:' + #userId")
-    })
     public ConversationMessageDO sendMessage(String userMessage, Long configId, Long conversationId, Long userId, String secretKey) {
+        // Not @Transactional on purpose: the upstream call can take a minute and must not pin a pooled
+        // connection. The work is split into a read phase, the upstream call and a short write transaction.
+
+        // ---------- Read phase ----------
         // Validate that the conversation belongs to the user
         ConversationDO conversation = conversationService.getConversation(conversationId, userId);
         if (conversation == null) {
@@ -84,19 +192,9 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
         }
 
         // Get the configuration
-        UserConfigDO config = userConfigService.getConfig(configId, userId);
-        if (config == null) {
-            throw new ServiceException(CONFIGURATION_NOT_EXISTS.getCode(), CONFIGURATION_NOT_EXISTS.getMsg());
-        }
-
-        // Set the secretKey for decryption if provided
-        if (StringUtils.hasText(secretKey)) {
-            config.setSecretKey(secretKey);
-        }
+        UserConfigDO config = getConfigForCall(configId, userId, secretKey);
 
         try {
-
-
             // Create user message (but don't save it yet)
             ConversationMessageDO userMessageDO = new ConversationMessageDO()
                     .setConversationId(conversationId)
@@ -104,24 +202,15 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
                     .setRole("user")
                     .setContent(userMessage);
 
-            // Get previous messages in the conversation for history
-            List<ConversationMessageDO> previousMessages = list(new LambdaQueryWrapper<ConversationMessageDO>()
-                    .eq(ConversationMessageDO::getConversationId, conversationId)
-                    .orderByAsc(ConversationMessageDO::getCreateTime));
+            // Get the previous messages that fit the configuration's token budget
+            List<ConversationMessageDO> previousMessages = getContextWindow(config, conversationId, userMessage);
 
-            // Generate the assistant response
+            // ---------- Upstream phase, no database connection held ----------
             ConversationMessageDO assistantMessageDO = generateAssistantResponse(userMessage, config, conversationId, configId, previousMessages);
 
-            // If we get here, the API call was successful, so now save the user message
-            save(userMessageDO);
-            save(assistantMessageDO);
-
-            // Update the conversation's update time
-            conversation.setUpdateTime(assistantMessageDO.getUpdateTime());
-            conversationService.updateById(conversation);
-
-            // Mark the configuration as available since it was successfully used
-            markConfigurationAsAvailable(configId, userId);
+            // ---------- Write phase ----------
+            // If we get here, the API call was successful, so now save both messages
+            persistExchange("send", conversation, userMessageDO, assistantMessageDO, userId);
 
             return assistantMessageDO;
         } catch (Exception e) {
@@ -139,9 +228,38 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
     }
 
     @Override
-    @Transactional
+    public SseEmitter sendMessageStream(String userMessage, Long configId, Long conversationId, Long userId, String secretKey) {
+        // Validate up front so ownership and configuration errors are returned as regular error responses
+        ConversationDO conversation = conversationService.getConversation(conversationId, userId);
+        if (conversation == null) {
+            throw new ServiceException(CONVERSATION_NOT_EXISTS.getCode(), CONVERSATION_NOT_EXISTS.getMsg());
+        }
+
+        // Get the configuration
+        UserConfigDO config = getConfigForCall(configId, userId, secretKey);
+
+        // Get the previous messages that fit the configuration's token budget
+        List<ConversationMessageDO> previousMessages = getContextWindow(config, conversationId, userMessage);
+
+        // Relay the upstream stream on a separate thread so the servlet thread is released right away
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        // Stop reading upstream once the client is gone, so the relaying thread does not outlive the emitter
+        UpstreamHttpClient.StreamCancellation cancellation = new UpstreamHttpClient.StreamCancellation();
+        emitter.onTimeout(cancellation::cancel);
+        emitter.onError(e -> cancellation.cancel());
+        emitter.onCompletion(cancellation::cancel);
+        messageStreamExecutor.execute(() ->
+                streamAssistantResponse(emitter, cancellation, userMessage, config, conversation, userId, previousMessages));
+        return emitter;
+    }
+
+    @Override
     @CacheEvict(key = "'id:' + #id + ':user:' + #userId")
     public ConversationMessageDO renameMessage(Long id, String content, Long userId, String secretKey) {
+        // Same three-phase structure as sendMessage: nothing is written until the upstream call has
+        // succeeded, so a failed regeneration leaves the conversation untouched
+
+        // ---------- Read phase ----------
         // Get the message and verify ownership
         ConversationMessageDO message = getMessage(id, userId);
         if (message == null) {
@@ -150,84 +268,93 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
 
         Long conversationId = message.getConversationId();
 
-        // Manually evict the conversation cache since conversationId is not available as a method parameter
-        // Instead of using: @CacheEvict(key = "'conversation:' + #conversationId + ':user:' + #userId")
-        String cacheKey = "acot_conversation_message::conversation:" + conversationId + ":user:" + userId;
-        redisTemplate.delete(cacheKey);
+        // For non-user messages, just update the content and return the updated message
+        if (!"user".equals(message.getRole())) {
+            message.setContent(content);
+            timedWrite("rename", () -> updateById(message));
+
+            // Patch the message in the cached history
+            List<ConversationMessageDO> cachedMessages = conversationMessageCache.get(conversationId);
+            int index = indexOf(cachedMessages, id);
+            if (index >= 0) {
+                List<ConversationMessageDO> tail = new ArrayList<>(cachedMessages.subList(index, cachedMessages.size()));
+                tail.set(0, message);
+                conversationMessageCache.replaceTail(conversationId, cachedMessages.size(), index, tail);
+            }
+            conversationSearchIndex.indexMessages(userId, List.of(message));
+            return message;
+        }
 
-        // Update the message content
-        message.setContent(content);
-        updateById(message);
+        // Now generate a new response using the same logic as sendMessage
+        Long configId = message.getConfigId();
 
-        // If it's a user message, delete subsequent messages and generate a new response
-        if ("user".equals(message.getRole())) {
-            // Delete all messages that came after this one
-            List<ConversationMessageDO> messages = getMessages(conversationId, userId);
+        // Get the configuration
+        UserConfigDO config = getConfigForCall(configId, userId, secretKey);
+
+        try {
+            // Split the conversation into the history before the renamed message and the messages after it
+            List<ConversationMessageDO> messages = getHistory(conversationId);
+            List<ConversationMessageDO> history = new ArrayList<>();
+            List<Long> subsequentMessageIds = new ArrayList<>();
             boolean foundTargetMessage = false;
             for (ConversationMessageDO msg : messages) {
                 if (foundTargetMessage) {
-                    deleteMessage(msg.getId(), userId);
-                }
-                if (msg.getId().equals(id)) {
+                    subsequentMessageIds.add(msg.getId());
+                } else if (msg.getId().equals(id)) {
                     foundTargetMessage = true;
+                } else {
+                    history.add(msg);
                 }
             }
 
-            // Now generate a new response using the same logic as sendMessage
-            Long configId = message.getConfigId();
+            // ---------- Upstream phase, no database connection held ----------
+            // The renamed message is passed as the new user message, not as part of the history
+            List<ConversationMessageDO> contextWindow = ContextWindowBuilder.build(config, content,
+                    ContextWindowBuilder.newestFirst(history));
+            ConversationMessageDO assistantMessageDO = generateAssistantResponse(content, config, conversationId, configId, contextWindow);
+
+            // ---------- Write phase ----------
+            message.setContent(content);
+            timedWrite("rename", () -> {
+                updateById(message);
+
+                // Delete all messages that came after the renamed one, a single range on the
+                // (conversation_id, id) index rather than a list of IDs
+                if (!subsequentMessageIds.isEmpty()) {
+                    remove(new LambdaQueryWrapper<ConversationMessageDO>()
+                            .eq(ConversationMessageDO::getConversationId, conversationId)
+                            .gt(ConversationMessageDO::getId, id));
+                }
 
-            // Validate the config exists
-            UserConfigDO config = userConfigService.getConfig(configId, userId);
-            if (config == null) {
-                throw new ServiceException(CONFIGURATION_NOT_EXISTS.getCode(), CONFIGURATION_NOT_EXISTS.getMsg());
-            }
+                save(assistantMessageDO);
 
-            // Set the secretKey for decryption if provided
-            if (StringUtils.hasText(secretKey)) {
-                config.setSecretKey(secretKey);
-            }
+                // Update the conversation's update time
+                touchConversation(conversationId, assistantMessageDO);
+                return null;
+            });
 
-            try {
-                // Get updated messages in the conversation for history (after deletions)
-                List<ConversationMessageDO> updatedMessages = getMessages(conversationId, userId);
+            // Truncate the cached history after the renamed message and append the new response
+            conversationMessageCache.replaceTail(conversationId, messages.size(), history.size(),
+                    List.of(message, assistantMessageDO));
+            conversationSearchIndex.removeMessages(userId, subsequentMessageIds);
+            conversationSearchIndex.indexMessages(userId, List.of(message, assistantMessageDO));
 
-                // Generate the assistant response
-                ConversationMessageDO assistantMessageDO = generateAssistantResponse(content, config, conversationId, configId, updatedMessages);
-                save(assistantMessageDO);
+            // Mark the configuration as available since it was successfully used
+            markConfigurationAsAvailable(configId, userId);
 
-                // Update the conversation's update time
-                ConversationDO conversation = conversationService.getById(conversationId);
-                conversation.setUpdateTime(assistantMessageDO.getUpdateTime());
-                conversationService.updateById(conversation);
-
-                // Mark the configuration as available since it was successfully used
-                markConfigurationAsAvailable(configId, userId);
-
-                return assistantMessageDO;
-            } catch (Exception e) {
-                log.error("Error generating response after renaming message", e);
-
-                // Create an error message
-                ConversationMessageDO errorMessageDO = new ConversationMessageDO()
-                        .setConversationId(conversationId)
-                        .setRole("system")
-                        .setContent("Error: " + e.getMessage());
-                save(errorMessageDO);
-
-                if (e instanceof ServiceException) {
-                    throw e;
-                }
+            return assistantMessageDO;
+        } catch (Exception e) {
+            log.error("Error generating response after renaming message", e);
 
-                throw new ServiceException(MESSAGE_SEND_FAILED.getCode(), e.getMessage());
+            if (e instanceof ServiceException) {
+                throw e;
             }
-        }
 
-        // For non-user messages, just return the updated message
-        return message;
+            throw new ServiceException(MESSAGE_SEND_FAILED.getCode(), e.getMessage());
+        }
     }
 
     @Override
-    @Transactional
     @CacheEvict(key = "'id:' + #id + ':user:' + #userId")
     public boolean deleteMessage(Long id, Long userId) {
         ConversationMessageDO message = getMessage(id, userId);
@@ -235,18 +362,23 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
             return false;
         }
 
-        // Manually evict the conversation cache since conversationId is not available as a method parameter
-        // Instead of using: @CacheEvict(key = "'conversation:' + #conversationId + ':user:' + #userId")
+        boolean removed = removeById(id);
+
+        // Cut the message out of the cached history
         Long conversationId = message.getConversationId();
-        String cacheKey = "acot_conversation_message::conversation:" + conversationId + ":user:" + userId;
-        redisTemplate.delete(cacheKey);
+        List<ConversationMessageDO> cachedMessages = conversationMessageCache.get(conversationId);
+        int index = indexOf(cachedMessages, id);
+        if (index >= 0) {
+            conversationMessageCache.replaceTail(conversationId, cachedMessages.size(), index,
+                    cachedMessages.subList(index + 1, cachedMessages.size()));
+        }
+        conversationSearchIndex.removeMessages(userId, List.of(id));
 
-        return removeById(id);
+        return removed;
     }
 
     @Override
     @Transactional
-    @CacheEvict(key = "'conversation:' + #conversationId + ':user:' + #userId")
     public boolean deleteMessagesByConversationId(Long conversationId, Long userId) {
         // Validate that the conversation belongs to the user
         ConversationDO conversation = conversationService.getConversation(conversationId, userId);
@@ -254,8 +386,24 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
             return false;
         }
 
-        return remove(new LambdaQueryWrapper<ConversationMessageDO>()
+        boolean removed = remove(new LambdaQueryWrapper<ConversationMessageDO>()
                 .eq(ConversationMessageDO::getConversationId, conversationId));
+
+        // Invalidated only once the delete is visible: a history read before the commit would otherwise load
+        // the deleted messages again under a fresh version
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    conversationMessageCache.invalidate(conversationId);
+                }
+            });
+        } else {
+            conversationMessageCache.invalidate(conversationId);
+        }
+        conversationSearchIndex.removeConversationMessages(userId, conversationId);
+
+        return removed;
     }
 
     @Override
@@ -265,8 +413,8 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
             return false;
         }
 
-        // Update isAvailable to true and set lastUsedTime to now
-        userConfigService.setAvailableAndUpdateLastUsedTime(configId, true);
+        // Update isAvailable to true and set lastUsedTime to now, written with the next flush of the buffer
+        touchBuffer.touchConfig(configId, userId, true);
 
         return true;
     }
@@ -290,34 +438,32 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
             List<ConversationMessageDO> conversationMessages) {
 
         // Use the common method to prepare request data with conversation history
-        Map<String, Object> requestData = HttpUtils.prepareRequestData(config, userMessage, conversationMessages);
+        Map<String, Object> requestData = HttpUtils.prepareRequestChunks(config, userMessage, conversationMessages, false);
         Map<String, String> headers = (Map<String, String>) requestData.get("headers");
-        Map<String, Object> requestBody = (Map<String, Object>) requestData.get("requestBody");
+        List<byte[]> requestBody = (List<byte[]>) requestData.get("requestBody");
 
-        // Make the actual HTTP request
-        String requestBodyStr = JsonUtils.toJsonString(requestBody);
-        String responseStr = HttpUtils.post(config.getApiUrl(), headers, requestBodyStr);
-
-        if (responseStr == null) {
-            throw new ServiceException(API_CALL_FAILED.getCode(), "API returned null response");
-        }
+        // Extract content and thinking text while the response is read, the rest of the body (usage,
+        // tool calls, logprobs...) is skipped rather than parsed into a map
+        CompiledJsonPath contentPath = StringUtils.hasText(config.getResponseTextPath())
+                ? CompiledJsonPath.of(config.getResponseTextPath()) : null;
+        CompiledJsonPath thinkingPath = StringUtils.hasText(config.getResponseThinkingTextPath())
+                ? CompiledJsonPath.of(config.getResponseThinkingTextPath()) : null;
 
-        // Parse the response
-        Map<String, Object> responseMap = JsonUtils.parseObject(responseStr, Map.class);
-
-        // Extract content and thinking text from the response using the specified paths
-        String content = null;
-        String thinking = null;
-
-        if (StringUtils.hasText(config.getResponseTextPath())) {
-            content = JsonUtils.extractValueFromPath(responseMap, config.getResponseTextPath());
+        // Make the actual HTTP request
+        String[] values = upstreamHttpClient.post(config.getId(), config.getApiUrl(), headers, requestBody,
+                body -> JsonUtils.extractValuesFromStream(body, contentPath, thinkingPath,
+                        PROMPT_TOKENS_PATH, COMPLETION_TOKENS_PATH));
+        if (values == null) {
+            upstreamMetrics.recordParseFailure(config.getApiUrl(), config.getId());
+            throw new ServiceException(API_CALL_FAILED.getCode(), "API returned empty response");
         }
 
-        if (StringUtils.hasText(config.getResponseThinkingTextPath())) {
-            thinking = JsonUtils.extractValueFromPath(responseMap, config.getResponseThinkingTextPath());
-        }
+        String content = values[0];
+        String thinking = values[1];
+        upstreamMetrics.recordUsage(config.getApiUrl(), config.getId(), tokenCount(values[2]), tokenCount(values[3]));
 
         if (content == null) {
+            upstreamMetrics.recordParseFailure(config.getApiUrl(), config.getId());
             throw new ServiceException(API_CALL_FAILED.getCode(), "Could not extract response content");
         }
 
@@ -330,4 +476,315 @@ public class ConversationMessageServiceImpl extends ServiceImpl<ConversationMess
                 .setContent(content)
                 .setThinkingText(thinking);
     }
-} 
\ No newline at end of file
+
+    /**
+     * Streams an assistant response to the client and persists the exchange once the stream is complete
+     * <p>
+     * Events sent to the client:
+     * - "thinking": a thinking text delta
+     * - "content": a content delta
+     * - "done": the persisted assistant message
+     * - "error": a {@link CommonResult} describing the failure
+     *
+     * @param emitter          The emitter connected to the client
+     * @param cancellation     Cancels the upstream stream when the emitter ends first
+     * @param userMessage      The message from the user
+     * @param config           The API configuration to use
+     * @param conversation     The conversation the message belongs to
+     * @param userId           The user ID
+     * @param previousMessages The messages in the conversation for context
+     */
+    private void streamAssistantResponse(
+            SseEmitter emitter,
+            UpstreamHttpClient.StreamCancellation cancellation,
+            String userMessage,
+            UserConfigDO config,
+            ConversationDO conversation,
+            Long userId,
+            List<ConversationMessageDO> previousMessages) {
+        try {
+            Map<String, Object> requestData = HttpUtils.prepareRequestChunks(config, userMessage, previousMessages, true);
+            Map<String, String> headers = (Map<String, String>) requestData.get("headers");
+            List<byte[]> requestBody = (List<byte[]>) requestData.get("requestBody");
+
+            // Deltas live under a different path than the full message, e.g. choices[0].delta.content.
+            // Paths are compiled here once rather than for every chunk
+            String contentPath = config.getResponseTextPath();
+            String thinkingPath = config.getResponseThinkingTextPath();
+            CompiledJsonPath contentMessagePath = StringUtils.hasText(contentPath) ? CompiledJsonPath.of(contentPath) : null;
+            CompiledJsonPath contentDeltaPath = StringUtils.hasText(contentPath) ? CompiledJsonPath.of(JsonUtils.toDeltaPath(contentPath)) : null;
+            CompiledJsonPath thinkingMessagePath = StringUtils.hasText(thinkingPath) ? CompiledJsonPath.of(thinkingPath) : null;
+            CompiledJsonPath thinkingDeltaPath = StringUtils.hasText(thinkingPath) ? CompiledJsonPath.of(JsonUtils.toDeltaPath(thinkingPath)) : null;
+
+            StringBuilder content = new StringBuilder();
+            StringBuilder thinking = new StringBuilder();
+            // Providers report usage once, in the last chunk, if at all
+            Number[] usage = new Number[2];
+
+            upstreamHttpClient.postStream(config.getId(), config.getApiUrl(), headers, requestBody, line -> {
+                String data;
+                boolean isChunk;
+                if (line.startsWith(SSE_DATA_PREFIX)) {
+                    data = line.substring(SSE_DATA_PREFIX.length()).trim();
+                    isChunk = true;
+                } else if (line.startsWith("{")) {
+                    // The provider ignored "stream" and answered with a regular JSON body
+                    data = line;
+                    isChunk = false;
+                } else {
+                    // Blank separators, comments and "event:" lines carry no payload
+                    return;
+                }
+                if (data.isEmpty() || SSE_DONE_MARKER.equals(data)) {
+                    return;
+                }
+
+                Map<String, Object> chunk;
+                try {
+                    chunk = JsonUtils.parseObject(data, Map.class);
+                } catch (RuntimeException e) {
+                    upstreamMetrics.recordParseFailure(config.getApiUrl(), config.getId());
+                    throw new ServiceException(API_CALL_FAILED.getCode(), "Error parsing streamed response chunk");
+                }
+                if (chunk == null) {
+                    return;
+                }
+
+                Number promptTokens = tokenCount(PROMPT_TOKENS_PATH.get(chunk));
+                Number completionTokens = tokenCount(COMPLETION_TOKENS_PATH.get(chunk));
+                if (promptTokens != null || completionTokens != null) {
+                    usage[0] = promptTokens;
+                    usage[1] = completionTokens;
+                }
+
+                if (thinkingMessagePath != null) {
+                    String delta = (isChunk ? thinkingDeltaPath : thinkingMessagePath).getString(chunk);
+                    if (StringUtils.hasLength(delta)) {
+                        thinking.append(delta);
+                        sendEvent(emitter, "thinking", delta);
+                    }
+                }
+
+                if (contentMessagePath != null) {
+                    String delta = (isChunk ? contentDeltaPath : contentMessagePath).getString(chunk);
+                    if (StringUtils.hasLength(delta)) {
+                        content.append(delta);
+                        sendEvent(emitter, "content", delta);
+                    }
+                }
+            }, cancellation);
+
+            upstreamMetrics.recordUsage(config.getApiUrl(), config.getId(), usage[0], usage[1]);
+            if (content.isEmpty()) {
+                upstreamMetrics.recordParseFailure(config.getApiUrl(), config.getId());
+                throw new ServiceException(API_CALL_FAILED.getCode(), "Could not extract response content");
+            }
+
+            ConversationMessageDO userMessageDO = new ConversationMessageDO()
+                    .setConversationId(conversation.getId())
+                    .setConfigId(config.getId())
+                    .setRole("user")
+                    .setContent(userMessage);
+            ConversationMessageDO assistantMessageDO = new ConversationMessageDO()
+                    .setConversationId(conversation.getId())
+                    .setConfigId(config.getId())
+                    .setRole("assistant")
+                    .setContent(content.toString())
+                    .setThinkingText(thinking.isEmpty() ? null : thinking.toString());
+
+            persistExchange("stream", conversation, userMessageDO, assistantMessageDO, userId);
+
+            emitter.send(SseEmitter.event()
+                    .name("done")
+                    .data(BeanUtils.toBean(assistantMessageDO, ConversationMessageRespVO.class)));
+            emitter.complete();
+        } catch (Exception e) {
+            log.error("Error streaming message", e);
+
+            Integer code = e instanceof ServiceException serviceException ?
+                    serviceException.getCode() : MESSAGE_SEND_FAILED.getCode();
+            try {
+                emitter.send(SseEmitter.event()
+                        .name("error")
+                        .data(CommonResult.error(code, e.getMessage())));
+                emitter.complete();
+            } catch (Exception sendException) {
+                // The client is already gone, nothing left to notify
+                emitter.completeWithError(sendException);
+            }
+        }
+    }
+
+    /**
+     * Persists a user message together with the assistant response in a single transaction
+     *
+     * @param operation          The operation name used to tag the transaction metric
+     * @param conversation       The conversation the messages belong to
+     * @param userMessageDO      The user message
+     * @param assistantMessageDO The assistant response
+     * @param userId             The user ID
+     */
+    private void persistExchange(String operation,
+                                 ConversationDO conversation,
+                                 ConversationMessageDO userMessageDO,
+                                 ConversationMessageDO assistantMessageDO,
+                                 Long userId) {
+        timedWrite(operation, () -> {
+            save(userMessageDO);
+            save(assistantMessageDO);
+
+            // Update the conversation's update time
+            touchConversation(conversation.getId(), assistantMessageDO);
+            return null;
+        });
+
+        // Append the exchange to the cached history
+        conversationMessageCache.append(conversation.getId(), List.of(userMessageDO, assistantMessageDO));
+        conversationSearchIndex.indexMessages(userId, List.of(userMessageDO, assistantMessageDO));
+
+        // Mark the configuration as available since it was successfully used
+        markConfigurationAsAvailable(assistantMessageDO.getConfigId(), userId);
+    }
+
+    /**
+     * Runs a write in a short transaction and records how long it held the database connection
+     * <p>
+     * The connection is borrowed when the transaction begins and returned on commit/rollback,
+     * so the transaction duration is the connection hold time.
+     *
+     * @param operation The operation name used to tag the metric
+     * @param action    The write to execute
+     * @return The action's result
+     */
+    private <T> T timedWrite(String operation, Supplier<T> action) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return transactionTemplate.execute(status -> action.get());
+        } finally {
+            sample.stop(Timer.builder("acot.db.connection.hold")
+                    .description("Time a database connection is held by a message write transaction")
+                    .tag("operation", operation)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Returns the message history of a conversation, from the cache when possible
+     * <p>
+     * Ownership of the conversation must have been checked by the caller
+     *
+     * @param conversationId The conversation ID
+     * @return The messages in order
+     */
+    private List<ConversationMessageDO> getHistory(Long conversationId) {
+        List<ConversationMessageDO> messages = conversationMessageCache.get(conversationId);
+        if (messages != null) {
+            return messages;
+        }
+
+        // Take the version before querying, so a write racing with this load is not overwritten
+        long version = conversationMessageCache.version(conversationId);
+        messages = list(new LambdaQueryWrapper<ConversationMessageDO>()
+                .eq(ConversationMessageDO::getConversationId, conversationId)
+                .orderByAsc(ConversationMessageDO::getCreateTime)
+                .orderByAsc(ConversationMessageDO::getId)
+        );
+        conversationMessageCache.load(conversationId, version, messages);
+        return messages;
+    }
+
+    /**
+     * Returns the newest messages of a conversation that fit the configuration's token budget
+     * <p>
+     * Uses the cached history when present, otherwise reads the database backwards in small batches
+     * and stops as soon as the budget is used up, so long conversations are never read as a whole.
+     *
+     * @param config         The configuration used for the upstream call
+     * @param conversationId The conversation ID
+     * @param userMessage    The new user message
+     * @return The selected messages, oldest first
+     */
+    private List<ConversationMessageDO> getContextWindow(UserConfigDO config, Long conversationId, String userMessage) {
+        List<ConversationMessageDO> cachedMessages = conversationMessageCache.get(conversationId);
+        Iterator<ConversationMessageDO> newestFirst = cachedMessages != null
+                ? ContextWindowBuilder.newestFirst(cachedMessages)
+                : ContextWindowBuilder.newestFirst(beforeId ->
+                baseMapper.selectListBefore(conversationId, beforeId, ContextWindowBuilder.BATCH_SIZE));
+        return ContextWindowBuilder.build(config, userMessage, newestFirst);
+    }
+
+    /**
+     * Returns the position of a message in a history, or -1 if the history is null or lacks the message
+     */
+    private static int indexOf(List<ConversationMessageDO> messages, Long messageId) {
+        if (messages == null) {
+            return -1;
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (messageId.equals(messages.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a configuration for an upstream call and sets the secretKey for decryption if provided
+     * <p>
+     * The cached configuration is shared with other requests, so the secretKey is set on a copy
+     *
+     * @throws ServiceException If the configuration does not exist
+     */
+    private UserConfigDO getConfigForCall(Long configId, Long userId, String secretKey) {
+        UserConfigDO config = userConfigService.getConfig(configId, userId);
+        if (config == null) {
+            throw new ServiceException(CONFIGURATION_NOT_EXISTS.getCode(), CONFIGURATION_NOT_EXISTS.getMsg());
+        }
+
+        config = BeanUtils.toBean(config, UserConfigDO.class);
+        if (StringUtils.hasText(secretKey)) {
+            config.setSecretKey(secretKey);
+        }
+        return config;
+    }
+
+    /**
+     * Sets the conversation's update time to the time of its latest message
+     * <p>
+     * Buffered and written with the next flush, so a busy conversation is updated once every few seconds
+     */
+    private void touchConversation(Long conversationId, ConversationMessageDO latestMessage) {
+        touchBuffer.touchConversation(conversationId, latestMessage.getUpdateTime());
+    }
+
+    /**
+     * Sends a delta to the client as a named event with a JSON payload, failing fast when the client has disconnected
+     * <p>
+     * The delta is wrapped as {"delta": "..."} rather than sent as raw text: SSE clients strip the leading space
+     * of a data field, which would glue words together when a delta starts with one
+     */
+    private void sendEvent(SseEmitter emitter, String name, String delta) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(Map.of("delta", delta), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Client disconnected during streaming", e);
+        }
+    }
+
+    /**
+     * A token count from the response's usage, numbers being read either parsed or as their string form
+     */
+    private static Number tokenCount(Object value) {
+        if (value instanceof Number number) {
+            return number;
+        }
+        if (value instanceof String text) {
+            try {
+                return Long.valueOf(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
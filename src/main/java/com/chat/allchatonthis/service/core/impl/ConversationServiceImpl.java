@@ -3,13 +3,18 @@ package com.chat.allchatonthis.service.core.impl;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.chat.allchatonthis.common.exception.ServiceException;
+import com.chat.allchatonthis.common.pojo.CursorPageResult;
+import com.chat.allchatonthis.common.pojo.PageCursor;
 import com.chat.allchatonthis.common.pojo.PageResult;
+import com.chat.allchatonthis.common.util.object.PageUtils;
 import com.chat.allchatonthis.entity.dataobject.ConversationDO;
-import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import com.chat.allchatonthis.entity.vo.conversation.ConversationCursorPageReqVO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationPageReqVO;
 import com.chat.allchatonthis.mapper.ConversationMapper;
-import com.chat.allchatonthis.mapper.ConversationMessageMapper;
 import com.chat.allchatonthis.service.core.ConversationService;
+import com.chat.allchatonthis.service.core.cache.ConversationMessageCache;
+import com.chat.allchatonthis.service.core.purge.ConversationPurgeQueue;
+import com.chat.allchatonthis.service.core.search.ConversationSearchIndex;
 import com.chat.allchatonthis.service.core.spi.ConversationPageProviderManager;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -19,6 +24,7 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
 import java.util.List;
 
@@ -30,11 +36,13 @@ import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.CONVERSATIO
 @CacheConfig(cacheNames = "conversation")
 public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, ConversationDO> implements ConversationService {
 
-    private final ConversationMessageMapper conversationMessageMapper;
     private final ConversationPageProviderManager conversationPageProviderManager;
+    private final ConversationMessageCache conversationMessageCache;
+    private final ConversationSearchIndex conversationSearchIndex;
+    private final ConversationPurgeQueue conversationPurgeQueue;
 
     @Override
-    @Cacheable(key = "'list:' + #userId")
+    @Cacheable(key = "'list:' + #userId", sync = true)
     public List<ConversationDO> getConversations(Long userId) {
         return list(new LambdaQueryWrapper<ConversationDO>()
                 .eq(ConversationDO::getUserId, userId));
@@ -47,7 +55,33 @@ public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Con
     }
 
     @Override
-    @Cacheable(key = "'id:' + #id + ':user:' + #userId")
+    public CursorPageResult<ConversationDO> getConversationCursorPage(Long userId, ConversationCursorPageReqVO conversationCursorPageReqVO) {
+        LambdaQueryWrapper<ConversationDO> queryWrapper = new LambdaQueryWrapper<ConversationDO>()
+                .eq(ConversationDO::getUserId, userId)
+                .like(StringUtils.hasText(conversationCursorPageReqVO.getSearchText()),
+                        ConversationDO::getTitle, conversationCursorPageReqVO.getSearchText());
+        Long total = Boolean.TRUE.equals(conversationCursorPageReqVO.getWithTotal()) ? count(queryWrapper) : null;
+
+        // Resume right after the last conversation of the previous page rather than skipping rows, so every
+        // page is an index range scan on (user_id, update_time, id). Rows without an update time sort last
+        PageCursor cursor = PageCursor.decode(conversationCursorPageReqVO.getCursor());
+        if (cursor != null && cursor.time() != null) {
+            queryWrapper.and(w -> w.lt(ConversationDO::getUpdateTime, cursor.time())
+                    .or(o -> o.eq(ConversationDO::getUpdateTime, cursor.time()).lt(ConversationDO::getId, cursor.id()))
+                    .or().isNull(ConversationDO::getUpdateTime));
+        } else if (cursor != null) {
+            queryWrapper.isNull(ConversationDO::getUpdateTime).lt(ConversationDO::getId, cursor.id());
+        }
+        queryWrapper.orderByDesc(ConversationDO::getUpdateTime)
+                .orderByDesc(ConversationDO::getId)
+                .last(PageUtils.buildCursorLimit(conversationCursorPageReqVO));
+
+        return PageUtils.buildCursorPageResult(list(queryWrapper), conversationCursorPageReqVO,
+                conversation -> new PageCursor(conversation.getUpdateTime(), conversation.getId()), total);
+    }
+
+    @Override
+    @Cacheable(key = "'id:' + #id + ':user:' + #userId", sync = true)
     public ConversationDO getConversation(Long id, Long userId) {
         return getOne(new LambdaQueryWrapper<ConversationDO>()
                 .eq(ConversationDO::getId, id)
@@ -63,6 +97,7 @@ public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Con
 
         // Save the conversation
         save(conversation);
+        conversationSearchIndex.indexConversation(userId, conversation);
 
         return conversation;
     }
@@ -85,6 +120,7 @@ public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Con
         conversation.setUserId(userId);  // Ensure the user ID remains the same
 
         updateById(conversation);
+        conversationSearchIndex.indexConversation(userId, conversation);
 
         return conversation;
     }
@@ -96,18 +132,21 @@ public class ConversationServiceImpl extends ServiceImpl<ConversationMapper, Con
             @CacheEvict(key = "'id:' + #id + ':user:' + #userId")
     })
     public boolean deleteConversation(Long id, Long userId) {
-        // First, delete all messages in the conversation
         ConversationDO conversation = getConversation(id, userId);
         if (conversation == null) {
             return false;
         }
 
-        conversationMessageMapper.delete(new LambdaQueryWrapper<ConversationMessageDO>()
-                .eq(ConversationMessageDO::getConversationId, id));
-
         // Delete the conversation from database
-        return remove(new LambdaQueryWrapper<ConversationDO>()
+        boolean removed = remove(new LambdaQueryWrapper<ConversationDO>()
                 .eq(ConversationDO::getId, id)
                 .eq(ConversationDO::getUserId, userId));
+        conversationMessageCache.invalidate(id);
+        conversationSearchIndex.removeConversation(userId, id);
+
+        // Its messages are unreachable from now on, every message access checks the conversation's owner.
+        // They are removed in the background rather than in this transaction
+        conversationPurgeQueue.enqueue(id);
+        return removed;
     }
 } 
\ No newline at end of file
@@ -31,7 +31,7 @@ public class PreferenceServiceImpl extends ServiceImpl<PreferenceMapper, Prefere
      * If no preference exists, create a default one
      */
     @Override
-    @Cacheable(key = "#userId")
+    @Cacheable(key = "#userId", sync = true)
     public PreferenceDO getPreference(Long userId) {
         // Find preference by userId
         PreferenceDO preference = getOne(new LambdaQueryWrapper<PreferenceDO>()
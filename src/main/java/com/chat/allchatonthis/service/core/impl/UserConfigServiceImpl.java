@@ -4,24 +4,25 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.chat.allchatonthis.common.exception.ServiceException;
 import com.chat.allchatonthis.common.util.http.HttpUtils;
+import com.chat.allchatonthis.common.util.json.CompiledJsonPath;
 import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.chat.allchatonthis.config.upstream.UpstreamHttpClient;
 import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
 import com.chat.allchatonthis.entity.vo.config.ConfigTestVO;
 import com.chat.allchatonthis.mapper.UserConfigMapper;
+import com.chat.allchatonthis.service.core.cache.ConfigOwnershipIndex;
 import com.chat.allchatonthis.service.core.UserConfigService;
+import com.chat.allchatonthis.service.core.touch.TouchBuffer;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -37,17 +38,22 @@ import static com.chat.allchatonthis.common.enums.ErrorCodeConstants.CONFIG_NOT_
 @CacheConfig(cacheNames = "user_config")
 public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserConfigDO> implements UserConfigService {
 
-    private final RestTemplate restTemplate;
+    private static final String CACHE_NAME = "user_config";
+
+    private final UpstreamHttpClient upstreamHttpClient;
+    private final ConfigOwnershipIndex configOwnershipIndex;
+    private final CacheManager cacheManager;
+    private final TouchBuffer touchBuffer;
 
     @Override
-    @Cacheable(key = "'list:' + #userId")
+    @Cacheable(key = "'list:' + #userId", sync = true)
     public List<UserConfigDO> getConfigs(Long userId) {
         return list(new LambdaQueryWrapper<UserConfigDO>()
                 .eq(UserConfigDO::getUserId, userId));
     }
 
     @Override
-    @Cacheable(key = "'id:' + #id + ':user:' + #userId")
+    @Cacheable(key = "'id:' + #id + ':user:' + #userId", sync = true)
     public UserConfigDO getConfig(Long id, Long userId) {
         return getOne(new LambdaQueryWrapper<UserConfigDO>()
                 .eq(UserConfigDO::getId, id)
@@ -76,6 +82,7 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
         }
 
         save(config);
+        configOwnershipIndex.record(config.getId(), userId);
         return config;
     }
 
@@ -109,6 +116,7 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
             config.getHeaders().put("Content-Type", "application/json");
         }
 
+        touchBuffer.discardConfig(id);
         updateById(config);
         return config;
     }
@@ -119,9 +127,13 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
             @CacheEvict(key = "'id:' + #id + ':user:' + #userId")
     })
     public boolean deleteConfig(Long id, Long userId) {
-        return remove(new LambdaQueryWrapper<UserConfigDO>()
+        boolean removed = remove(new LambdaQueryWrapper<UserConfigDO>()
                 .eq(UserConfigDO::getId, id)
                 .eq(UserConfigDO::getUserId, userId));
+        if (removed) {
+            configOwnershipIndex.remove(id);
+        }
+        return removed;
     }
 
     @Override
@@ -137,22 +149,13 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
             Map<String, String> headers = (Map<String, String>) requestData.get("headers");
             Map<String, Object> requestBody = (Map<String, Object>) requestData.get("requestBody");
 
-            // Convert to HttpHeaders
-            HttpHeaders httpHeaders = new HttpHeaders();
-            headers.forEach(httpHeaders::set);
-
             // Make request
-            HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(requestBody, httpHeaders);
-            ResponseEntity<String> response = restTemplate.exchange(
-                    config.getApiUrl(),
-                    HttpMethod.POST,
-                    requestEntity,
-                    String.class
-            );
+            UpstreamHttpClient.UpstreamResponse response = upstreamHttpClient.post(
+                    config.getId(), config.getApiUrl(), headers, JsonUtils.toJsonString(requestBody));
 
-            log.info("API response: {}", response);
+            log.info("API response: {} {}", response.getStatusCode(), response.getBody());
 
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+            if (response.isSuccessful() && response.getBody() != null) {
                 // Parse response
                 Map<String, Object> responseMap = JsonUtils.parseObject(response.getBody(), Map.class);
 
@@ -162,11 +165,11 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
                 String role = "assistant"; // Default role
 
                 if (StringUtils.hasText(config.getResponseTextPath())) {
-                    content = JsonUtils.extractValueFromPath(responseMap, config.getResponseTextPath());
+                    content = CompiledJsonPath.of(config.getResponseTextPath()).getString(responseMap);
                 }
 
                 if (StringUtils.hasText(config.getResponseThinkingTextPath())) {
-                    thinking = JsonUtils.extractValueFromPath(responseMap, config.getResponseThinkingTextPath());
+                    thinking = CompiledJsonPath.of(config.getResponseThinkingTextPath()).getString(responseMap);
                 }
 
                 // Check if we found any content
@@ -185,6 +188,7 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
                     updateConfig.setId(config.getId());
                     updateConfig.setIsAvailable(true);
                     updateConfig.setLastUsedTime(LocalDateTime.now());
+                    touchBuffer.discardConfig(config.getId());
                     updateById(updateConfig);
 
                     // Evict related cache entries
@@ -244,24 +248,34 @@ public class UserConfigServiceImpl extends ServiceImpl<UserConfigMapper, UserCon
     }
 
     @Override
-    @Caching(evict = {
-            @CacheEvict(key = "'id:' + #configId + ':user:' + '*'", allEntries = true),
-            @CacheEvict(key = "'list:' + '*'", allEntries = true)
-    })
     public void setAvailableAndUpdateLastUsedTime(Long configId, boolean available) {
         UserConfigDO updateConfig = new UserConfigDO();
         updateConfig.setId(configId);
         updateConfig.setIsAvailable(available);
         updateConfig.setLastUsedTime(LocalDateTime.now());
+        // A buffered touch flushed after this write would bring back its own availability
+        touchBuffer.discardConfig(configId);
         updateById(updateConfig);
+
+        // Only the owner's entries hold this config, the caller does not know the owner
+        evictConfigCache(configId, configOwnershipIndex.getOwner(configId));
     }
 
     /**
-     * Helper method to evict cache entries related to a specific config
+     * Evict the cache entries holding a specific config: its own entry and its owner's list
+     * <p>
+     * Done by hand rather than with annotations, which calls from within this class would bypass
      */
     private void evictConfigCache(Long configId, Long userId) {
-        // This is a manual cache eviction, spring will handle the actual eviction
-        log.debug("Manually evicting cache for config id: {} and user id: {}", configId, userId);
+        if (userId == null) {
+            return;
+        }
+        log.debug("Evicting cache for config id: {} and user id: {}", configId, userId);
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache != null) {
+            cache.evict("id:" + configId + ":user:" + userId);
+            cache.evict("list:" + userId);
+        }
     }
 
     @Override
@@ -57,7 +57,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserDO> implements
     }
     
     @Override
-    @Cacheable(key = "#userId")
+    @Cacheable(key = "#userId", sync = true)
     public UserInfomationVO getUserInformation(Long userId) {
         // Get user from database
         UserDO user = getById(userId);
@@ -0,0 +1,186 @@
+package com.chat.allchatonthis.service.core.purge;
+
+import com.chat.allchatonthis.mapper.ConversationMessageMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Background removal of the messages of deleted conversations
+ * <p>
+ * Deleting a conversation only marks the conversation row deleted: its messages become unreachable at once, as
+ * every message access checks the conversation's owner. The conversation is then queued here, and a worker
+ * physically deletes its messages in ranges of primary keys, pausing between batches and bounding the work per run, so a
+ * conversation with thousands of messages never holds a long transaction or floods the database.
+ * <p>
+ * The queue is a Redis hash of conversation ID to the last message ID purged, so progress survives restarts and
+ * a run resumes where the previous one stopped. A lease keeps runs on different nodes from overlapping.
+ */
+@Slf4j
+@Component
+public class ConversationPurgeQueue {
+
+    private static final String QUEUE_KEY = "acot_purge_queue";
+    private static final String LEASE_KEY = "acot_purge_lease";
+
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    /**
+     * Messages deleted by one statement
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Batches per run, across all queued conversations
+     */
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    /**
+     * Pause between two batches, leaving the database to the requests
+     */
+    private static final long BATCH_PAUSE_MILLIS = 50;
+
+    private static final Duration LEASE_DURATION = Duration.ofMinutes(2);
+
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final ConversationMessageMapper conversationMessageMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Counter purgedMessages;
+
+    public ConversationPurgeQueue(ConversationMessageMapper conversationMessageMapper,
+                                  StringRedisTemplate stringRedisTemplate,
+                                  MeterRegistry meterRegistry) {
+        this.conversationMessageMapper = conversationMessageMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.purgedMessages = Counter.builder("acot.purge.messages")
+                .description("Messages of deleted conversations removed by the background purge")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue the messages of a deleted conversation for removal, once the current transaction (if any) commits
+     *
+     * @param conversationId The ID of the deleted conversation
+     */
+    public void enqueue(Long conversationId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    push(conversationId);
+                }
+            });
+        } else {
+            push(conversationId);
+        }
+    }
+
+    /**
+     * Remove queued messages, up to {@link #MAX_BATCHES_PER_RUN} batches
+     */
+    @Scheduled(initialDelay = 30_000, fixedDelay = 10_000)
+    public void purge() {
+        Boolean leased;
+        try {
+            leased = stringRedisTemplate.opsForValue().setIfAbsent(LEASE_KEY, NODE_ID, LEASE_DURATION);
+        } catch (Exception e) {
+            log.error("Failed to acquire the purge lease: {}", e.getMessage());
+            return;
+        }
+        if (!Boolean.TRUE.equals(leased)) {
+            return;
+        }
+
+        try {
+            int batches = 0;
+            for (Map.Entry<Long, Long> job : pendingJobs()) {
+                batches += purge(job.getKey(), job.getValue(), MAX_BATCHES_PER_RUN - batches);
+                if (batches >= MAX_BATCHES_PER_RUN) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to purge deleted conversations: {}", e.getMessage());
+        } finally {
+            releaseLease();
+        }
+    }
+
+    /**
+     * Purge one conversation from the given position
+     *
+     * @return The number of batches used
+     */
+    private int purge(Long conversationId, Long afterId, int maxBatches) throws InterruptedException {
+        for (int batch = 0; batch < maxBatches; batch++) {
+            Long toId = conversationMessageMapper.selectPurgeBatchEnd(conversationId, afterId, BATCH_SIZE);
+            if (toId == null) {
+                stringRedisTemplate.opsForHash().delete(QUEUE_KEY, conversationId.toString());
+                log.debug("Purged the messages of conversation {}", conversationId);
+                return batch;
+            }
+
+            // A plain delete would only mark the rows deleted, which the logical delete already did for some
+            purgedMessages.increment(conversationMessageMapper.deletePhysicallyInRange(conversationId, afterId, toId));
+            afterId = toId;
+            stringRedisTemplate.opsForHash().put(QUEUE_KEY, conversationId.toString(), afterId.toString());
+
+            Thread.sleep(BATCH_PAUSE_MILLIS);
+        }
+        return maxBatches;
+    }
+
+    /**
+     * Release the lease if this node still holds it, in one script: between a separate read and delete the lease
+     * could expire and be taken by another node, whose lease would then be deleted
+     */
+    private void releaseLease() {
+        try {
+            stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(LEASE_KEY), NODE_ID);
+        } catch (Exception e) {
+            // The lease expires by itself
+            log.error("Failed to release the purge lease: {}", e.getMessage());
+        }
+    }
+
+    private List<Map.Entry<Long, Long>> pendingJobs() {
+        List<Map.Entry<Long, Long>> jobs = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().count(MAX_BATCHES_PER_RUN).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash().scan(QUEUE_KEY, options)) {
+            while (cursor.hasNext() && jobs.size() < MAX_BATCHES_PER_RUN) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                jobs.add(Map.entry(Long.valueOf((String) entry.getKey()), Long.valueOf((String) entry.getValue())));
+            }
+        }
+        return jobs;
+    }
+
+    private void push(Long conversationId) {
+        try {
+            stringRedisTemplate.opsForHash().putIfAbsent(QUEUE_KEY, conversationId.toString(), "0");
+        } catch (Exception e) {
+            // The messages stay unreachable, only their rows are left behind
+            log.error("Failed to queue the messages of conversation {} for purging: {}", conversationId, e.getMessage());
+        }
+    }
+}
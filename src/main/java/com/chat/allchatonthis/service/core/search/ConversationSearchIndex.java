@@ -0,0 +1,487 @@
+package com.chat.allchatonthis.service.core.search;
+
+import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.chat.allchatonthis.entity.dataobject.ConversationDO;
+import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import com.chat.allchatonthis.mapper.ConversationMapper;
+import com.chat.allchatonthis.mapper.ConversationMessageMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-process inverted index over the conversation titles and message contents of each user
+ * <p>
+ * A user's index is built from the database on their first search, then kept up to date by the conversation and
+ * message services on every write, so a search only intersects the posting sets of the query's tokens and its
+ * cost does not grow with the user's history. See {@link SearchTokenizer} for how text is tokenized.
+ * <p>
+ * Indexes are evicted after 30 minutes without a search, or when the total number of postings exceeds the
+ * limit. A user whose history needs more than {@link #MAX_USER_POSTINGS} postings is not indexed: the index is
+ * replaced with a marker for 30 minutes, during which their searches are left to the next provider instead of
+ * rebuilding the index every time.
+ * <p>
+ * Each node keeps its own indexes: a write on one node is published on Redis, once its transaction commits, as
+ * the IDs it changed. The other nodes holding the user's index apply it, reading the changed titles and messages
+ * by primary key, so their index stays loaded whatever node serves the user's next search.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationSearchIndex implements MessageListener {
+
+    /**
+     * Redis channel carrying an {@link IndexChange} as JSON for every write applied to a user's index
+     */
+    public static final String CHANNEL = "acot_search_invalidation";
+
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    /**
+     * Bound on the postings kept across all users' indexes, roughly 50 bytes each
+     */
+    private static final long MAX_POSTINGS = 2_000_000;
+
+    /**
+     * Bound on the postings of one user's index, above it the user's searches fall back to the next provider
+     */
+    private static final int MAX_USER_POSTINGS = 200_000;
+
+    private static final Duration IDLE_EXPIRY = Duration.ofMinutes(30);
+
+    /**
+     * Conversations whose messages are read in one query when building an index
+     */
+    private static final int LOAD_BATCH_SIZE = 200;
+
+    private final ConversationMapper conversationMapper;
+    private final ConversationMessageMapper conversationMessageMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final Cache<Long, UserIndex> indexes = Caffeine.newBuilder()
+            .maximumWeight(MAX_POSTINGS)
+            .weigher((Long userId, UserIndex index) -> index.weight())
+            .expireAfter(new Expiry<Long, UserIndex>() {
+                @Override
+                public long expireAfterCreate(Long userId, UserIndex index, long currentTime) {
+                    return IDLE_EXPIRY.toNanos();
+                }
+
+                @Override
+                public long expireAfterUpdate(Long userId, UserIndex index, long currentTime, long currentDuration) {
+                    return IDLE_EXPIRY.toNanos();
+                }
+
+                @Override
+                public long expireAfterRead(Long userId, UserIndex index, long currentTime, long currentDuration) {
+                    // The oversized marker is not kept alive by searches, so a history that shrank gets indexed again
+                    return index == UserIndex.OVERSIZED ? currentDuration : IDLE_EXPIRY.toNanos();
+                }
+            })
+            .build();
+
+    @PostConstruct
+    public void init() {
+        // Shares the subscription connection of the cache invalidation listener
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * Find the conversations of a user matching a query
+     *
+     * @param userId The user ID
+     * @param query  The query text
+     * @return The IDs of the conversations whose title or one of whose messages contains every term of the query,
+     * or null if the query has no searchable characters or the user's history is too large to index
+     */
+    public Set<Long> search(Long userId, String query) {
+        List<SearchTokenizer.QueryTerm> terms = SearchTokenizer.queryTerms(query);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        UserIndex index = indexes.get(userId, this::build);
+        return index == UserIndex.OVERSIZED ? null : index.search(terms);
+    }
+
+    /**
+     * Index the title of a created or renamed conversation
+     *
+     * @param userId       The owner of the conversation
+     * @param conversation The conversation, skipped if it has no title
+     */
+    public void indexConversation(Long userId, ConversationDO conversation) {
+        if (conversation.getTitle() == null) {
+            return;
+        }
+        apply(userId, index -> index.put(titleKey(conversation.getId()), conversation.getId(), conversation.getTitle()));
+        publish(new IndexChange(NODE_ID, userId, IndexChange.Type.TITLE, conversation.getId(), null));
+    }
+
+    /**
+     * Remove a deleted conversation, its title and all its messages
+     *
+     * @param userId         The owner of the conversation
+     * @param conversationId The conversation ID
+     */
+    public void removeConversation(Long userId, Long conversationId) {
+        apply(userId, index -> index.removeConversation(conversationId, true));
+        publish(new IndexChange(NODE_ID, userId, IndexChange.Type.REMOVE_CONVERSATION, conversationId, null));
+    }
+
+    /**
+     * Remove all messages of a conversation, keeping its title
+     *
+     * @param userId         The owner of the conversation
+     * @param conversationId The conversation ID
+     */
+    public void removeConversationMessages(Long userId, Long conversationId) {
+        apply(userId, index -> index.removeConversation(conversationId, false));
+        publish(new IndexChange(NODE_ID, userId, IndexChange.Type.REMOVE_CONVERSATION_MESSAGES, conversationId, null));
+    }
+
+    /**
+     * Index new or edited messages
+     *
+     * @param userId   The owner of the conversation
+     * @param messages The saved messages
+     */
+    public void indexMessages(Long userId, Collection<ConversationMessageDO> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        apply(userId, index -> messages.forEach(message ->
+                index.put(message.getId(), message.getConversationId(), message.getContent())));
+        List<Long> messageIds = messages.stream().map(ConversationMessageDO::getId).toList();
+        publish(new IndexChange(NODE_ID, userId, IndexChange.Type.MESSAGES, null, messageIds));
+    }
+
+    /**
+     * Remove deleted messages
+     *
+     * @param userId     The owner of the conversations
+     * @param messageIds The message IDs
+     */
+    public void removeMessages(Long userId, Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        apply(userId, index -> messageIds.forEach(index::remove));
+        publish(new IndexChange(NODE_ID, userId, IndexChange.Type.REMOVE_MESSAGES, null, List.copyOf(messageIds)));
+    }
+
+    /**
+     * Receives the writes made on other nodes, applied if this node holds the user's index
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        IndexChange change;
+        try {
+            change = JsonUtils.parseObject(body, IndexChange.class);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed search index change: {}", body);
+            return;
+        }
+        if (change == null || change.userId() == null || NODE_ID.equals(change.nodeId())
+                || indexes.policy().getIfPresentQuietly(change.userId()) == null) {
+            return;
+        }
+
+        try {
+            apply(change.userId(), read(change));
+        } catch (RuntimeException e) {
+            log.error("Failed to apply search index change of user {}, dropping the index: {}", change.userId(), e.getMessage());
+            indexes.invalidate(change.userId());
+        }
+    }
+
+    /**
+     * Read what a change from another node wrote, outside the index lock
+     *
+     * @return The write to apply to the index
+     */
+    private Consumer<UserIndex> read(IndexChange change) {
+        return switch (change.type()) {
+            case TITLE -> {
+                ConversationDO conversation = conversationMapper.selectTitleById(change.conversationId());
+                long titleKey = titleKey(change.conversationId());
+                yield conversation == null || conversation.getTitle() == null
+                        ? index -> index.remove(titleKey)
+                        : index -> index.put(titleKey, conversation.getId(), conversation.getTitle());
+            }
+            case MESSAGES -> {
+                List<ConversationMessageDO> messages = conversationMessageMapper.selectContentsByIds(change.messageIds());
+                Set<Long> missing = new HashSet<>(change.messageIds());
+                messages.forEach(message -> missing.remove(message.getId()));
+                yield index -> {
+                    messages.forEach(message -> index.put(message.getId(), message.getConversationId(), message.getContent()));
+                    // Deleted again meanwhile
+                    missing.forEach(index::remove);
+                };
+            }
+            case REMOVE_MESSAGES -> index -> change.messageIds().forEach(index::remove);
+            case REMOVE_CONVERSATION -> index -> index.removeConversation(change.conversationId(), true);
+            case REMOVE_CONVERSATION_MESSAGES -> index -> index.removeConversation(change.conversationId(), false);
+        };
+    }
+
+    /**
+     * Apply a write to the user's index if it is loaded. Runs under the entry's lock, so a write racing with a
+     * build waits for it and is applied on top; writes are idempotent, the build may already include it.
+     * An index growing past {@link #MAX_USER_POSTINGS} is replaced with the oversized marker.
+     */
+    private void apply(Long userId, Consumer<UserIndex> write) {
+        try {
+            indexes.asMap().computeIfPresent(userId, (key, index) -> {
+                if (index == UserIndex.OVERSIZED) {
+                    return index;
+                }
+                write.accept(index);
+                return index.weight() > MAX_USER_POSTINGS ? UserIndex.OVERSIZED : index;
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to update the search index of user {}, dropping it: {}", userId, e.getMessage());
+            indexes.invalidate(userId);
+        }
+    }
+
+    /**
+     * Publish a change to the other nodes once the current transaction (if any) commits, so they read the
+     * committed rows
+     */
+    private void publish(IndexChange change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    send(change);
+                }
+            });
+        } else {
+            send(change);
+        }
+    }
+
+    private void send(IndexChange change) {
+        try {
+            stringRedisTemplate.convertAndSend(CHANNEL, JsonUtils.toJsonString(change));
+        } catch (Exception e) {
+            // Other nodes serve a stale index until it expires
+            log.error("Failed to publish search index change of user {}: {}", change.userId(), e.getMessage());
+        }
+    }
+
+    private UserIndex build(Long userId) {
+        long start = System.nanoTime();
+        UserIndex index = new UserIndex();
+
+        List<ConversationDO> conversations = conversationMapper.selectTitlesByUserId(userId);
+        List<Long> conversationIds = new ArrayList<>(conversations.size());
+        for (ConversationDO conversation : conversations) {
+            conversationIds.add(conversation.getId());
+            index.put(titleKey(conversation.getId()), conversation.getId(), conversation.getTitle());
+        }
+        for (int from = 0; from < conversationIds.size(); from += LOAD_BATCH_SIZE) {
+            List<Long> batch = conversationIds.subList(from, Math.min(from + LOAD_BATCH_SIZE, conversationIds.size()));
+            for (ConversationMessageDO message : conversationMessageMapper.selectContentsByConversationIds(batch)) {
+                index.put(message.getId(), message.getConversationId(), message.getContent());
+            }
+            if (index.weight() > MAX_USER_POSTINGS) {
+                log.info("Search index of user {} exceeds {} postings, not indexing the user", userId, MAX_USER_POSTINGS);
+                return UserIndex.OVERSIZED;
+            }
+        }
+
+        log.debug("Built search index of user {}: {} documents, {} postings in {} ms", userId,
+                index.documents.size(), index.weight(), (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    /**
+     * Document key of a conversation title, message documents are keyed by their (positive) ID
+     */
+    private static long titleKey(Long conversationId) {
+        return -conversationId;
+    }
+
+    /**
+     * A write published to the other nodes: the IDs it changed, the content is read from the database
+     *
+     * @param nodeId         The node the write was made on
+     * @param userId         The owner of the index
+     * @param type           The kind of write
+     * @param conversationId The conversation, for title and whole conversation writes
+     * @param messageIds     The messages, for message writes
+     */
+    record IndexChange(String nodeId, Long userId, Type type, Long conversationId, List<Long> messageIds) {
+
+        enum Type {
+            TITLE, MESSAGES, REMOVE_MESSAGES, REMOVE_CONVERSATION, REMOVE_CONVERSATION_MESSAGES
+        }
+    }
+
+    /**
+     * The index of one user: documents (titles and messages) by token
+     */
+    private static class UserIndex {
+
+        /**
+         * Stands for a user whose history is too large to index, never written to
+         */
+        static final UserIndex OVERSIZED = new UserIndex();
+
+        /**
+         * Sorted, so prefix terms are a range of keys
+         */
+        private final TreeMap<String, Set<Long>> postings = new TreeMap<>();
+        private final Map<Long, Document> documents = new HashMap<>();
+        private final Map<Long, Set<Long>> documentsByConversation = new HashMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private int postingCount;
+
+        private record Document(long conversationId, Set<String> tokens) {
+        }
+
+        int weight() {
+            return Math.max(1, postingCount);
+        }
+
+        Set<Long> search(List<SearchTokenizer.QueryTerm> terms) {
+            lock.readLock().lock();
+            try {
+                List<Set<Long>> matches = new ArrayList<>(terms.size());
+                for (SearchTokenizer.QueryTerm term : terms) {
+                    Set<Long> match = match(term);
+                    if (match.isEmpty()) {
+                        return Set.of();
+                    }
+                    matches.add(match);
+                }
+
+                // Intersect starting from the rarest term
+                matches.sort(Comparator.comparingInt(Set::size));
+                Set<Long> conversationIds = new HashSet<>();
+                for (Long documentKey : matches.get(0)) {
+                    if (containedInAll(documentKey, matches)) {
+                        conversationIds.add(documents.get(documentKey).conversationId());
+                    }
+                }
+                return conversationIds;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(long documentKey, long conversationId, String text) {
+            lock.writeLock().lock();
+            try {
+                remove(documentKey);
+                Set<String> tokens = SearchTokenizer.indexTokens(text);
+                if (tokens.isEmpty()) {
+                    return;
+                }
+                for (String token : tokens) {
+                    postings.computeIfAbsent(token, k -> new HashSet<>()).add(documentKey);
+                }
+                postingCount += tokens.size();
+                documents.put(documentKey, new Document(conversationId, tokens));
+                documentsByConversation.computeIfAbsent(conversationId, k -> new HashSet<>()).add(documentKey);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long documentKey) {
+            lock.writeLock().lock();
+            try {
+                Document document = documents.remove(documentKey);
+                if (document == null) {
+                    return;
+                }
+                for (String token : document.tokens()) {
+                    Set<Long> documentKeys = postings.get(token);
+                    if (documentKeys != null && documentKeys.remove(documentKey) && documentKeys.isEmpty()) {
+                        postings.remove(token);
+                    }
+                }
+                postingCount -= document.tokens().size();
+                Set<Long> conversationDocuments = documentsByConversation.get(document.conversationId());
+                if (conversationDocuments != null) {
+                    conversationDocuments.remove(documentKey);
+                    if (conversationDocuments.isEmpty()) {
+                        documentsByConversation.remove(document.conversationId());
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void removeConversation(long conversationId, boolean includingTitle) {
+            lock.writeLock().lock();
+            try {
+                Set<Long> conversationDocuments = documentsByConversation.get(conversationId);
+                if (conversationDocuments == null) {
+                    return;
+                }
+                for (Long documentKey : new ArrayList<>(conversationDocuments)) {
+                    if (includingTitle || documentKey != titleKey(conversationId)) {
+                        remove(documentKey);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private Set<Long> match(SearchTokenizer.QueryTerm term) {
+            if (!term.prefix()) {
+                return postings.getOrDefault(term.token(), Set.of());
+            }
+            Collection<Set<Long>> ranges = postings.subMap(term.token(), true, term.token() + Character.MAX_VALUE, false).values();
+            if (ranges.size() == 1) {
+                return ranges.iterator().next();
+            }
+            Set<Long> match = new HashSet<>();
+            ranges.forEach(match::addAll);
+            return match;
+        }
+
+        private static boolean containedInAll(Long documentKey, List<Set<Long>> matches) {
+            for (int i = 1; i < matches.size(); i++) {
+                if (!matches.get(i).contains(documentKey)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
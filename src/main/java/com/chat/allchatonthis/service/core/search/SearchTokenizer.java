@@ -0,0 +1,133 @@
+package com.chat.allchatonthis.service.core.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into the tokens of the conversation search index
+ * <p>
+ * - Runs of letters and digits outside CJK scripts form lowercase words
+ * - CJK text has no word separators, each run is indexed as its single characters and overlapping pairs of
+ * characters (bigrams). A query is looked up by its bigrams, or by its character if it has only one, which
+ * finds any text containing the query with few false positives.
+ * <p>
+ * Words of a query match as prefixes, so the word being typed already finds results.
+ */
+final class SearchTokenizer {
+
+    /**
+     * Longer words are truncated, they would only bloat the index
+     */
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * @param token  The token to look up
+     * @param prefix Whether every indexed token starting with it matches
+     */
+    record QueryTerm(String token, boolean prefix) {
+    }
+
+    /**
+     * Tokens to index a text under
+     *
+     * @param text The text, may be null
+     * @return The distinct tokens
+     */
+    static Set<String> indexTokens(String text) {
+        Set<String> tokens = new HashSet<>();
+        tokenize(text, tokens::add, run -> {
+            for (int i = 0; i < run.size(); i++) {
+                tokens.add(new String(Character.toChars(run.get(i))));
+                if (i + 1 < run.size()) {
+                    tokens.add(bigram(run, i));
+                }
+            }
+        });
+        return tokens;
+    }
+
+    /**
+     * Terms a text must contain all of to match a query
+     *
+     * @param text The query text
+     * @return The terms, empty if the query has no searchable characters
+     */
+    static List<QueryTerm> queryTerms(String text) {
+        List<QueryTerm> terms = new ArrayList<>();
+        tokenize(text, word -> terms.add(new QueryTerm(word, true)), run -> {
+            if (run.size() == 1) {
+                terms.add(new QueryTerm(new String(Character.toChars(run.get(0))), false));
+                return;
+            }
+            for (int i = 0; i + 1 < run.size(); i++) {
+                terms.add(new QueryTerm(bigram(run, i), false));
+            }
+        });
+        return terms;
+    }
+
+    /**
+     * @param words   Receives each word, lowercased
+     * @param cjkRuns Receives each run of CJK code points, the list is reused afterwards
+     */
+    private static void tokenize(String text, Consumer<String> words, Consumer<List<Integer>> cjkRuns) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        StringBuilder word = new StringBuilder();
+        List<Integer> run = new ArrayList<>();
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (isCjk(codePoint)) {
+                flushWord(word, words);
+                run.add(codePoint);
+            } else {
+                flushRun(run, cjkRuns);
+                if (Character.isLetterOrDigit(codePoint)) {
+                    if (word.length() < MAX_WORD_LENGTH) {
+                        word.appendCodePoint(codePoint);
+                    }
+                } else {
+                    flushWord(word, words);
+                }
+            }
+        }
+        flushWord(word, words);
+        flushRun(run, cjkRuns);
+    }
+
+    private static void flushWord(StringBuilder word, Consumer<String> words) {
+        if (!word.isEmpty()) {
+            words.accept(word.toString().toLowerCase(Locale.ROOT));
+            word.setLength(0);
+        }
+    }
+
+    private static void flushRun(List<Integer> run, Consumer<List<Integer>> cjkRuns) {
+        if (!run.isEmpty()) {
+            cjkRuns.accept(run);
+            run.clear();
+        }
+    }
+
+    private static String bigram(List<Integer> run, int index) {
+        return new StringBuilder(4).appendCodePoint(run.get(index)).appendCodePoint(run.get(index + 1)).toString();
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -4,6 +4,7 @@ import com.chat.allchatonthis.common.pojo.PageResult;
 import com.chat.allchatonthis.entity.dataobject.ConversationDO;
 import com.chat.allchatonthis.entity.vo.conversation.ConversationPageReqVO;
 import com.chat.allchatonthis.mapper.ConversationMapper;
+import com.chat.allchatonthis.service.core.search.ConversationSearchIndex;
 
 /**
  * SPI interface for conversation page retrieval
@@ -17,6 +18,14 @@ public interface ConversationPageProvider {
      */
     void setConversationMapper(ConversationMapper conversationMapper);
 
+    /**
+     * Set the conversation search index, for providers searching through it
+     *
+     * @param conversationSearchIndex The conversation search index
+     */
+    default void setConversationSearchIndex(ConversationSearchIndex conversationSearchIndex) {
+    }
+
     /**
      * Get a page of conversations for a user
      *
@@ -1,6 +1,7 @@
 package com.chat.allchatonthis.service.core.spi;
 
 import com.chat.allchatonthis.mapper.ConversationMapper;
+import com.chat.allchatonthis.service.core.search.ConversationSearchIndex;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -20,6 +21,9 @@ public class ConversationPageProviderFactory {
     @Resource
     private ConversationMapper conversationMapper;
 
+    @Resource
+    private ConversationSearchIndex conversationSearchIndex;
+
     /**
      * Get all available providers, sorted by order (highest priority first)
      *
@@ -49,6 +53,7 @@ public class ConversationPageProviderFactory {
         ServiceLoader<ConversationPageProvider> serviceLoader = ServiceLoader.load(ConversationPageProvider.class);
         serviceLoader.forEach((provider) ->{
             provider.setConversationMapper(conversationMapper);
+            provider.setConversationSearchIndex(conversationSearchIndex);
             providers.add(provider);
         });
         
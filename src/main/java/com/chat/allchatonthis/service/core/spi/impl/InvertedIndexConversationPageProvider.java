@@ -0,0 +1,105 @@
+package com.chat.allchatonthis.service.core.spi.impl;
+
+import com.chat.allchatonthis.common.pojo.PageResult;
+import com.chat.allchatonthis.entity.dataobject.ConversationDO;
+import com.chat.allchatonthis.entity.vo.conversation.ConversationPageReqVO;
+import com.chat.allchatonthis.mapper.ConversationMapper;
+import com.chat.allchatonthis.service.core.search.ConversationSearchIndex;
+import com.chat.allchatonthis.service.core.spi.ConversationPageProvider;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full-text search implementation of the ConversationPageProvider SPI
+ * <p>
+ * Matches the search text against conversation titles and message contents through the
+ * {@link ConversationSearchIndex}, then reads the page of matching conversations by primary key.
+ * Requests without search text, or whose text has nothing to search for, are left to the next provider.
+ * <p>
+ * The matches are ordered and paged in memory, from their update times read in bounded batches, so only the
+ * conversations of the page are read in full and no query carries the whole match set.
+ */
+@NoArgsConstructor
+@Slf4j
+public class InvertedIndexConversationPageProvider implements ConversationPageProvider {
+
+    /**
+     * Conversation IDs per query when reading the update times of the matches
+     */
+    private static final int ID_BATCH_SIZE = 500;
+
+    private static final Comparator<ConversationDO> MOST_RECENT_FIRST = Comparator
+            .comparing(ConversationDO::getUpdateTime, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(ConversationDO::getId, Comparator.reverseOrder());
+
+    private ConversationMapper conversationMapper;
+    private ConversationSearchIndex conversationSearchIndex;
+
+    @Override
+    public void setConversationMapper(ConversationMapper conversationMapper) {
+        this.conversationMapper = conversationMapper;
+    }
+
+    @Override
+    public void setConversationSearchIndex(ConversationSearchIndex conversationSearchIndex) {
+        this.conversationSearchIndex = conversationSearchIndex;
+    }
+
+    @Override
+    public PageResult<ConversationDO> getConversationPage(Long userId, ConversationPageReqVO conversationPageReqVO) {
+        if (conversationSearchIndex == null || !StringUtils.hasText(conversationPageReqVO.getSearchText())) {
+            return null;
+        }
+
+        Set<Long> conversationIds = conversationSearchIndex.search(userId, conversationPageReqVO.getSearchText());
+        if (conversationIds == null) {
+            return null;
+        }
+        if (conversationIds.isEmpty()) {
+            return new PageResult<>(Collections.emptyList(), 0L);
+        }
+
+        // Order the matches most recently updated first; the index may still hold conversations deleted on
+        // another node, only those read back count
+        List<Long> ids = new ArrayList<>(conversationIds);
+        List<ConversationDO> matches = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += ID_BATCH_SIZE) {
+            matches.addAll(conversationMapper.selectUpdateTimesByIds(userId,
+                    ids.subList(from, Math.min(from + ID_BATCH_SIZE, ids.size()))));
+        }
+        matches.sort(MOST_RECENT_FIRST);
+
+        long offset = (long) (conversationPageReqVO.getPageNo() - 1) * conversationPageReqVO.getPageSize();
+        if (offset >= matches.size()) {
+            return new PageResult<>(Collections.emptyList(), (long) matches.size());
+        }
+        List<Long> pageIds = matches.subList((int) offset, (int) Math.min(offset + conversationPageReqVO.getPageSize(), matches.size()))
+                .stream().map(ConversationDO::getId).toList();
+
+        // Read the page by primary key and restore its order
+        Map<Long, ConversationDO> conversations = new HashMap<>();
+        conversationMapper.selectByIds(pageIds).forEach(conversation -> conversations.put(conversation.getId(), conversation));
+        List<ConversationDO> records = new ArrayList<>(pageIds.size());
+        for (Long id : pageIds) {
+            ConversationDO conversation = conversations.get(id);
+            if (conversation != null) {
+                records.add(conversation);
+            }
+        }
+        return new PageResult<>(records, (long) matches.size());
+    }
+
+    @Override
+    public int getOrder() {
+        return 200; // Ahead of the MyBatis Plus provider, which still serves the requests without search text
+    }
+}
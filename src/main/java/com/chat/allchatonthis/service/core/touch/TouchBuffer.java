@@ -0,0 +1,182 @@
+package com.chat.allchatonthis.service.core.touch;
+
+import com.chat.allchatonthis.entity.dataobject.ConversationDO;
+import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
+import com.chat.allchatonthis.mapper.ConversationMapper;
+import com.chat.allchatonthis.mapper.UserConfigMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for the timestamps touched by every message
+ * <p>
+ * Sending a message moves the conversation's update time and marks the configuration used as available with a
+ * new last used time. Written right away, that is two more UPDATEs per message, mostly overwriting each other
+ * for an active conversation. Here only the latest value per row is kept in memory and all of them are written
+ * every few seconds, as one batch per table in a single transaction.
+ * <p>
+ * After a flush, the cache entries of the flushed configurations are evicted, and only those. Conversations are
+ * not evicted: their update time was never reflected in the cached entries.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TouchBuffer {
+
+    private static final long FLUSH_INTERVAL_MILLIS = 3_000;
+
+    private static final String USER_CONFIG_CACHE = "user_config";
+
+    private final ConversationMapper conversationMapper;
+    private final UserConfigMapper userConfigMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final CacheManager cacheManager;
+
+    private final Map<Long, LocalDateTime> conversationTouches = new ConcurrentHashMap<>();
+    private final Map<Long, ConfigTouch> configTouches = new ConcurrentHashMap<>();
+
+    /**
+     * Held by a flush from draining the touches until they are written, see {@link #discardConfig(Long)}
+     */
+    private final Lock flushLock = new ReentrantLock();
+
+    /**
+     * @param userId    The owner of the configuration, whose cache entries are evicted after the flush
+     * @param available The availability to set
+     * @param time      The last used time to set
+     */
+    private record ConfigTouch(Long userId, boolean available, LocalDateTime time) {
+    }
+
+    /**
+     * Move a conversation's update time, keeping the latest of the buffered times
+     *
+     * @param conversationId The conversation ID
+     * @param updateTime     The new update time
+     */
+    public void touchConversation(Long conversationId, LocalDateTime updateTime) {
+        conversationTouches.merge(conversationId, updateTime, (current, touched) -> touched.isAfter(current) ? touched : current);
+    }
+
+    /**
+     * Set a configuration's availability and last used time to now
+     *
+     * @param configId  The configuration ID
+     * @param userId    The owner of the configuration
+     * @param available Whether the configuration is available
+     */
+    public void touchConfig(Long configId, Long userId, boolean available) {
+        configTouches.put(configId, new ConfigTouch(userId, available, LocalDateTime.now()));
+    }
+
+    /**
+     * Drop the pending touch of a configuration, before writing its availability directly
+     * <p>
+     * Waits for a flush in progress, so the direct write lands after it: a touch written late would otherwise
+     * overwrite the availability set meanwhile, e.g. mark available again a configuration a failed test just
+     * marked unavailable.
+     *
+     * @param configId The configuration ID
+     */
+    public void discardConfig(Long configId) {
+        flushLock.lock();
+        try {
+            configTouches.remove(configId);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write the buffered touches
+     */
+    @Scheduled(initialDelay = FLUSH_INTERVAL_MILLIS, fixedDelay = FLUSH_INTERVAL_MILLIS)
+    public void flush() {
+        if (conversationTouches.isEmpty() && configTouches.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            write(drain(conversationTouches), drain(configTouches));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void write(Map<Long, LocalDateTime> conversations, Map<Long, ConfigTouch> configs) {
+        List<ConversationDO> conversationUpdates = new ArrayList<>(conversations.size());
+        conversations.forEach((id, updateTime) -> {
+            ConversationDO update = new ConversationDO().setId(id);
+            update.setUpdateTime(updateTime);
+            conversationUpdates.add(update);
+        });
+        List<UserConfigDO> configUpdates = new ArrayList<>(configs.size());
+        configs.forEach((id, touch) -> {
+            UserConfigDO update = new UserConfigDO();
+            update.setId(id);
+            update.setIsAvailable(touch.available());
+            update.setLastUsedTime(touch.time());
+            configUpdates.add(update);
+        });
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!conversationUpdates.isEmpty()) {
+                    conversationMapper.updateById(conversationUpdates);
+                }
+                if (!configUpdates.isEmpty()) {
+                    userConfigMapper.updateById(configUpdates);
+                }
+            });
+        } catch (Exception e) {
+            // Put the touches back, unless newer ones arrived meanwhile
+            conversations.forEach(this::touchConversation);
+            configs.forEach(configTouches::putIfAbsent);
+            log.error("Failed to flush {} conversation and {} configuration touches: {}",
+                    conversations.size(), configs.size(), e.getMessage());
+            return;
+        }
+
+        Cache cache = cacheManager.getCache(USER_CONFIG_CACHE);
+        if (cache != null) {
+            configs.forEach((id, touch) -> {
+                cache.evict("id:" + id + ":user:" + touch.userId());
+                cache.evict("list:" + touch.userId());
+            });
+        }
+    }
+
+    /**
+     * Takes the entries out of a buffer one by one. An entry replaced while draining stays in the buffer with its
+     * newer value, for the next flush; swapping the whole map could lose a touch added to the old one.
+     */
+    private static <V> Map<Long, V> drain(Map<Long, V> buffer) {
+        Map<Long, V> drained = new HashMap<>();
+        for (Map.Entry<Long, V> entry : buffer.entrySet()) {
+            if (buffer.remove(entry.getKey(), entry.getValue())) {
+                drained.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return drained;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
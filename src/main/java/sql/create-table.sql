@@ -47,4 +47,17 @@ CREATE TABLE conversation_message
     create_time     DATETIME    NOT NULL,
     update_time     DATETIME,
     is_deleted      TINYINT     NOT NULL DEFAULT 0
-);
\ No newline at end of file
+);
+
+-- 对话上下文的 token 预算（为空时使用默认值）
+ALTER TABLE user_config
+    ADD COLUMN context_token_budget INT NULL;
+
+-- 按消息 ID 倒序分批读取对话历史
+CREATE INDEX idx_conversation_message_conversation_id ON conversation_message (conversation_id, id);
+
+-- 游标分页：按 (update_time, id) 倒序查询用户的对话
+CREATE INDEX idx_conversation_user_id_update_time ON conversation (user_id, update_time, id);
+
+-- 游标分页：按 (create_time, id) 倒序查询对话的消息
+CREATE INDEX idx_conversation_message_conversation_id_create_time ON conversation_message (conversation_id, create_time, id);
@@ -0,0 +1,109 @@
+package com.chat.allchatonthis.common.util.http;
+
+import com.chat.allchatonthis.common.util.json.JsonUtils;
+import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import com.chat.allchatonthis.entity.dataobject.UserConfigDO;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A body rendered from the compiled template must be the same JSON document as the one built as a map
+ */
+class RequestBodyTemplateTest {
+
+    private static final List<ConversationMessageDO> HISTORY = List.of(
+            new ConversationMessageDO().setRole("system").setContent("You are helpful"),
+            new ConversationMessageDO().setRole("user").setContent("Hello \"there\"\n"),
+            new ConversationMessageDO().setRole("assistant").setContent(" 你好 "),
+            new ConversationMessageDO().setRole("tool").setContent(null));
+
+    @Test
+    void renderedBodyMatchesPreparedMap() {
+        assertRenderedMatchesPrepared(config("messages"), false);
+    }
+
+    @Test
+    void renderedStreamBodyMatchesPreparedMap() {
+        assertRenderedMatchesPrepared(config("messages"), true);
+    }
+
+    @Test
+    void renderedBodyWithNestedGroupAndCustomFieldsMatchesPreparedMap() {
+        UserConfigDO config = config("input.history")
+                .setRequestRolePathFromGroup("author")
+                .setRequestTextPathFromGroup("text")
+                .setRequestUserRoleField("human")
+                .setRequestAssistantField("model");
+
+        assertRenderedMatchesPrepared(config, false);
+    }
+
+    @Test
+    void compiledTemplateSurvivesUsageTouches() {
+        UserConfigDO config = config("messages");
+        config.setId(42L);
+        config.setUpdateTime(LocalDateTime.now());
+        RequestBodyTemplate first = RequestBodyTemplate.of(config, false);
+
+        // Marking the configuration as used moves its update time, the template is unchanged
+        config.setUpdateTime(config.getUpdateTime().plusSeconds(3));
+
+        assertThat(RequestBodyTemplate.of(config, false)).isSameAs(first);
+    }
+
+    @Test
+    void apiKeyInBodyIsNotCompiled() {
+        UserConfigDO config = config("messages").setApiKeyPlacement("body").setApiKeyBodyPath("api_key");
+
+        assertThat(RequestBodyTemplate.of(config, false)).isNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertRenderedMatchesPrepared(UserConfigDO config, boolean stream) {
+        Map<String, Object> chunks = HttpUtils.prepareRequestChunks(config, "How are you?", HISTORY, stream);
+        ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        for (byte[] chunk : (List<byte[]>) chunks.get("requestBody")) {
+            rendered.writeBytes(chunk);
+        }
+
+        Map<String, Object> prepared = (Map<String, Object>) HttpUtils
+                .prepareRequestData(config, "How are you?", HISTORY).get("requestBody");
+        if (stream) {
+            prepared.put("stream", true);
+        }
+
+        assertThat(JsonUtils.parseObject(rendered.toString(StandardCharsets.UTF_8), Map.class))
+                .isEqualTo(JsonUtils.parseObject(JsonUtils.toJsonString(prepared), Map.class));
+        assertThat(chunks.get("headers")).isEqualTo(HttpUtils.prepareRequestData(config, "How are you?", HISTORY).get("headers"));
+    }
+
+    private static UserConfigDO config(String messageGroupPath) {
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("values", List.of(1, 2.5, "three"));
+        nested.put("flag", true);
+
+        Map<String, Object> template = new HashMap<>();
+        template.put("model", "Qwen/QwQ-32B");
+        template.put("temperature", 0.7);
+        template.put("stop", null);
+        template.put("messages", List.of(Map.of("role", "user", "content", "Hello, nice to meet you.")));
+        template.put("options", nested);
+
+        UserConfigDO config = new UserConfigDO()
+                .setApiUrl("https://api.example.com/v1/chat/completions")
+                .setApiKey("sk-test")
+                .setApiKeyPlacement("header")
+                .setHeaders(Map.of("Content-Type", "application/json"))
+                .setRequestTemplate(template)
+                .setRequestMessageGroupPath(messageGroupPath);
+        return config;
+    }
+}
@@ -0,0 +1,110 @@
+package com.chat.allchatonthis.common.util.json;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link CompiledJsonPath} must read paths exactly as the split-based implementation it replaced
+ */
+class CompiledJsonPathTest {
+
+    private static final String DOCUMENT = """
+            {
+              "id": "chatcmpl-1",
+              "created": 1741234567,
+              "temperature": 0.7,
+              "stream": false,
+              "missing": null,
+              "choices": [
+                {
+                  "index": 0,
+                  "message": {"role": "assistant", "content": "Hello", "reasoning_content": " world"},
+                  "tool_calls": [{"function": {"name": "get_weather", "arguments": {"city": "Paris"}}}]
+                }
+              ],
+              "usage": {"prompt_tokens": 141, "completion_tokens": 774, "details": {"reasoning_tokens": 681}},
+              "tags": ["a", "b"]
+            }
+            """;
+
+    private static final List<String> PATHS = List.of(
+            "id",
+            "created",
+            "temperature",
+            "stream",
+            "missing",
+            "absent",
+            "choices[0].message.content",
+            "choices[0].message.reasoning_content",
+            "choices[0].message",
+            "choices[0].tool_calls[0].function.arguments",
+            "choices[0].tool_calls",
+            "choices[1].message.content",
+            "choices[0].message.content.length",
+            "id.nested",
+            "usage",
+            "usage.details.reasoning_tokens",
+            "tags[1]",
+            "tags[2]",
+            "usage[0]",
+            "absent[0].content");
+
+    @Test
+    void getStringMatchesLegacyExtraction() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> data = JsonUtils.parseObject(DOCUMENT, Map.class);
+        for (String path : PATHS) {
+            assertThat(CompiledJsonPath.of(path).getString(data)).as(path).isEqualTo(legacyExtract(data, path));
+        }
+    }
+
+    @Test
+    void setCreatesMissingSteps() {
+        Map<String, Object> data = new HashMap<>();
+        CompiledJsonPath.of("messages[1].content").set(data, "Hi");
+
+        assertThat(JsonUtils.toJsonString(data)).isEqualTo("{\"messages\":[{},{\"content\":\"Hi\"}]}");
+    }
+
+    /**
+     * The implementation of JsonUtils.extractValueFromPath before paths were compiled, also the baseline of
+     * {@link JsonPathBenchmark}
+     */
+    @SuppressWarnings("unchecked")
+    static String legacyExtract(Map<String, Object> data, String path) {
+        String[] parts = path.split("\\.");
+        Object current = data;
+        for (String part : parts) {
+            if (current == null) {
+                return null;
+            }
+            if (part.contains("[") && part.contains("]")) {
+                String arrayName = part.substring(0, part.indexOf('['));
+                int index = Integer.parseInt(part.substring(part.indexOf('[') + 1, part.indexOf(']')));
+                if (!(current instanceof Map)) {
+                    return null;
+                }
+                Map<String, Object> map = (Map<String, Object>) current;
+                if (!(map.get(arrayName) instanceof List)) {
+                    return null;
+                }
+                List<Object> array = (List<Object>) map.get(arrayName);
+                if (index >= array.size()) {
+                    return null;
+                }
+                current = array.get(index);
+            } else {
+                if (!(current instanceof Map)) {
+                    return null;
+                }
+                current = ((Map<String, Object>) current).get(part);
+            }
+        }
+        return current != null ? current.toString() : null;
+    }
+}
@@ -0,0 +1,79 @@
+package com.chat.allchatonthis.common.util.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a response path from a parsed chunk: the split-based extraction {@link CompiledJsonPath} replaced,
+ * {@link JsonUtils#extractValueFromPath} looking the compiled path up by its text, and a path compiled up front
+ * as the stream relay holds it
+ * <p>
+ * Not run by the tests, run {@link #main} from the test classpath after test-compile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonPathBenchmark {
+
+    private static final String CHUNK = """
+            {"id":"chatcmpl-1","object":"chat.completion.chunk","created":1741234567,"model":"deepseek-reasoner",
+             "choices":[{"index":0,"delta":{"role":"assistant","content":"Hello","reasoning_content":" world"},
+             "finish_reason":null}],
+             "usage":{"prompt_tokens":141,"completion_tokens":774,"details":{"reasoning_tokens":681}}}
+            """;
+
+    @Param({"choices[0].delta.content", "usage.details.reasoning_tokens"})
+    public String path;
+
+    private Map<String, Object> data;
+    private CompiledJsonPath compiledPath;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        data = JsonUtils.parseObject(CHUNK, Map.class);
+        compiledPath = CompiledJsonPath.of(path);
+    }
+
+    @Benchmark
+    public String splitBased() {
+        return CompiledJsonPathTest.legacyExtract(data, path);
+    }
+
+    @Benchmark
+    public String extractValueFromPath() {
+        return JsonUtils.extractValueFromPath(data, path);
+    }
+
+    @Benchmark
+    public String compiled() {
+        return compiledPath.getString(data);
+    }
+
+    @Benchmark
+    public Object compiledGet() {
+        return compiledPath.get(data);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JsonPathBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,93 @@
+package com.chat.allchatonthis.common.util.json;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Values read from the token stream must have the same string form as the ones read from the parsed map
+ */
+class JsonStreamExtractorTest {
+
+    private static final String DOCUMENT = """
+            {
+              "id": "chatcmpl-1",
+              "created": 1741234567,
+              "big": 123456789012345678901234567890,
+              "temperature": 0.7,
+              "exponent": 1.5e10,
+              "stream": false,
+              "missing": null,
+              "choices": [
+                {
+                  "index": 0,
+                  "message": {"role": "assistant", "content": "Hello", "reasoning_content": " world",
+                              "parts": [{"text": "a"}, {"text": "b"}]},
+                  "logprobs": {"content": [{"token": "Hello", "logprob": -0.1}]}
+                }
+              ],
+              "usage": {"prompt_tokens": 141, "completion_tokens": 774},
+              "tags": ["a", 1, true, null, {"k": "v"}]
+            }
+            """;
+
+    @Test
+    void scalarsMatchMapExtraction() throws IOException {
+        assertMatchesMap("id", "created", "big", "temperature", "exponent", "stream", "missing", "absent",
+                "choices[0].index", "choices[0].message.content", "choices[0].message.reasoning_content",
+                "usage.prompt_tokens", "tags[0]", "tags[1]", "tags[2]", "tags[3]");
+    }
+
+    @Test
+    void objectAndArrayValuesMatchMapExtraction() throws IOException {
+        assertMatchesMap("choices[0].message", "choices[0].message.parts", "usage", "tags", "tags[4]", "choices");
+    }
+
+    @Test
+    void pathsThroughAnEndingValueMatchMapExtraction() throws IOException {
+        // One path ends at the object another one continues into
+        assertMatchesMap("choices[0].message", "choices[0].message.parts[1].text", "choices[0].message.content");
+    }
+
+    @Test
+    void outOfRangeAndMistypedStepsMatchMapExtraction() throws IOException {
+        assertMatchesMap("choices[1].message.content", "tags[5]", "choices[0].message.parts[2].text",
+                "id.nested", "usage[0]", "choices.message", "stream.value", "missing.value");
+    }
+
+    @Test
+    void nullPathsYieldNull() throws IOException {
+        String[] values = JsonUtils.extractValuesFromStream(stream(DOCUMENT), null, CompiledJsonPath.of("id"));
+
+        assertThat(values).containsExactly(null, "chatcmpl-1");
+    }
+
+    @Test
+    void emptyDocumentYieldsNull() throws IOException {
+        assertThat(JsonUtils.extractValuesFromStream(stream(""), CompiledJsonPath.of("id"))).isNull();
+    }
+
+    private static void assertMatchesMap(String... paths) throws IOException {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> data = JsonUtils.parseObject(DOCUMENT, Map.class);
+        CompiledJsonPath[] compiled = new CompiledJsonPath[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            compiled[i] = CompiledJsonPath.of(paths[i]);
+        }
+
+        String[] values = JsonUtils.extractValuesFromStream(stream(DOCUMENT), compiled);
+
+        for (int i = 0; i < paths.length; i++) {
+            assertThat(values[i]).as(paths[i]).isEqualTo(JsonUtils.extractValueFromPath(data, paths[i]));
+        }
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
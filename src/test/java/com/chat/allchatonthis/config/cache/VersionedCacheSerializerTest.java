@@ -0,0 +1,143 @@
+package com.chat.allchatonthis.config.cache;
+
+import com.chat.allchatonthis.entity.dataobject.ConversationMessageDO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Values must read back as written in every encoding, with the serializers the cache manager uses
+ */
+class VersionedCacheSerializerTest {
+
+    private static final RedisSerializer<Object> JSON_SERIALIZER = CacheConfig.valueSerializer();
+    private static final ObjectMapper SMILE_MAPPER = CacheConfig.smileMapper();
+
+    @Test
+    void jsonIsWrittenWithoutHeader() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.JSON, 1024);
+        List<ConversationMessageDO> messages = messages(3, LocalDateTime.of(2025, 3, 1, 12, 30, 45));
+
+        byte[] bytes = serializer.serialize(messages);
+
+        // Exactly what nodes knowing only JSON write and read
+        assertThat(bytes).isEqualTo(JSON_SERIALIZER.serialize(messages));
+        assertThat(bytes[0]).isNotEqualTo(VersionedCacheSerializer.MAGIC);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(messages);
+        assertThat(JSON_SERIALIZER.deserialize(bytes)).isEqualTo(messages);
+    }
+
+    @Test
+    void smileRoundTrips() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 0);
+        List<ConversationMessageDO> messages = messages(3, LocalDateTime.of(2025, 3, 1, 12, 30, 45));
+
+        byte[] bytes = serializer.serialize(messages);
+
+        assertThat(bytes[0]).isEqualTo(VersionedCacheSerializer.MAGIC);
+        assertThat(bytes[1]).isEqualTo(VersionedCacheSerializer.VERSION_SMILE);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(messages);
+    }
+
+    @Test
+    void smileIsCompressedFromTheThreshold() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 1024);
+        List<ConversationMessageDO> messages = messages(50, LocalDateTime.of(2025, 3, 1, 12, 30, 45));
+
+        byte[] bytes = serializer.serialize(messages);
+
+        assertThat(bytes[1]).isEqualTo(VersionedCacheSerializer.VERSION_SMILE_DEFLATE);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(messages);
+    }
+
+    @Test
+    void smileBelowTheThresholdIsNotCompressed() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 1024);
+        ConversationMessageDO message = messages(1, LocalDateTime.of(2025, 3, 1, 12, 30, 45)).get(0);
+
+        byte[] bytes = serializer.serialize(message);
+
+        assertThat(bytes[1]).isEqualTo(VersionedCacheSerializer.VERSION_SMILE);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(message);
+    }
+
+    @Test
+    void incompressibleValueIsKeptUncompressed() {
+        // Deflate adds more framing than a few bytes can save
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 1);
+
+        byte[] bytes = serializer.serialize("ok");
+
+        assertThat(bytes[1]).isEqualTo(VersionedCacheSerializer.VERSION_SMILE);
+        assertThat(serializer.deserialize(bytes)).isEqualTo("ok");
+    }
+
+    @Test
+    void unknownVersionReadsAsMiss() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 1024);
+        byte[] bytes = serializer.serialize("value");
+        bytes[1] = 9;
+
+        assertThat(serializer.deserialize(bytes)).isNull();
+    }
+
+    @Test
+    void everyFormatReadsTheOther() {
+        VersionedCacheSerializer json = serializer(CacheSerializationProperties.Format.JSON, 1024);
+        VersionedCacheSerializer smile = serializer(CacheSerializationProperties.Format.SMILE, 1024);
+        List<ConversationMessageDO> messages = messages(50, LocalDateTime.of(2025, 3, 1, 12, 30, 45));
+
+        assertThat(json.deserialize(smile.serialize(messages))).isEqualTo(messages);
+        assertThat(smile.deserialize(json.serialize(messages))).isEqualTo(messages);
+    }
+
+    @Test
+    void localDateTimeSurvivesSmile() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 1024);
+        // Sub-second precision, which the JSON pattern drops
+        LocalDateTime time = LocalDateTime.of(2025, 3, 1, 12, 30, 45, 123_456_789);
+        ConversationMessageDO message = messages(1, time).get(0);
+
+        Object read = serializer.deserialize(serializer.serialize(message));
+
+        assertThat(read).isInstanceOf(ConversationMessageDO.class);
+        assertThat(((ConversationMessageDO) read).getCreateTime()).isEqualTo(time);
+        assertThat(((ConversationMessageDO) read).getUpdateTime()).isEqualTo(time.plusMinutes(1));
+    }
+
+    @Test
+    void emptyValueReadsAsNull() {
+        VersionedCacheSerializer serializer = serializer(CacheSerializationProperties.Format.SMILE, 1024);
+
+        assertThat(serializer.serialize(null)).isEmpty();
+        assertThat(serializer.deserialize(new byte[0])).isNull();
+        assertThat(serializer.deserialize(null)).isNull();
+    }
+
+    private static VersionedCacheSerializer serializer(CacheSerializationProperties.Format format,
+                                                      int compressionThreshold) {
+        return new VersionedCacheSerializer("conversation_message", format, JSON_SERIALIZER, SMILE_MAPPER,
+                compressionThreshold, new SimpleMeterRegistry());
+    }
+
+    private static List<ConversationMessageDO> messages(int count, LocalDateTime time) {
+        // An ArrayList, as the mappers return: typed values are read back as the class they were written from
+        List<ConversationMessageDO> messages = new ArrayList<>();
+        for (long i = 1; i <= count; i++) {
+            ConversationMessageDO message = new ConversationMessageDO(i, 42L, 7L,
+                    i % 2 == 0 ? "assistant" : "user", "Message " + i + " about 缓存", null);
+            message.setCreateTime(time);
+            message.setUpdateTime(time.plusMinutes(1));
+            message.setDeleted(false);
+            messages.add(message);
+        }
+        return messages;
+    }
+}